@@ -0,0 +1,453 @@
+/**
+ * @author Kenny Tram
+ * Engine-vs-engine matches played in-process, many games at a time. Every
+ * opening is played twice with the colours swapped, each side has its own game
+ * clock, and the result is reported as a score, an Elo difference with a 95%
+ * error bar and, if asked for, a sequential probability ratio test that ends
+ * the match as soon as it is decided.
+ *   Arena <engine A> <engine B> [-games N] [-concurrency N] [-time seconds] [-hash MB]
+ *         [-random K] [-openings file] [-seed S] [-sprt elo0 elo1] [-alpha A] [-beta B]
+ *         [-weights file] [-probcut file]
+ * An engine is "ab" or "mcts", optionally followed by ":depth=D" (fixed-depth
+ * alpha-beta, no clock), ":selectivity=levels" (ProbCut levels, as for Game)
+ * and ":threads=N", e.g. "ab:selectivity=0" or "mcts:threads=2".
+ */
+package KKT_Othello;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Arena {
+    public static final double ERROR_Z = 1.96; //standard errors in a 95% confidence interval
+
+    private final String specA;
+    private final String specB;
+    private final int games;
+    private final long gameTime; //nanoseconds on each side's clock
+    private final int hashSizeMB;
+    private final int randomMoves; //random plies played from each opening before the engines take over
+    private final ArrayList<Position> openings;
+    private final long seed;
+    private final boolean sprt;
+    private final double elo0; //SPRT null hypothesis: A is this many Elo stronger
+    private final double elo1; //SPRT alternative hypothesis
+    private final double lowerBound; //log-likelihood ratio at which H0 is accepted
+    private final double upperBound; //log-likelihood ratio at which H1 is accepted
+    private final AtomicInteger nextGame = new AtomicInteger();
+    private volatile boolean stopRequested; //set once the SPRT has decided
+
+    private int wins; //results from A's side
+    private int losses;
+    private int draws;
+    private int timeLosses; //games lost on time, by either side
+    private int illegalMoves; //games lost by playing an illegal move, by either side
+    private String decision; //SPRT result once decided, null before
+
+    /**
+     * Creates a match
+     * @param engineA Specification of the engine being tested
+     * @param engineB Specification of the reference engine
+     * @param args Options
+     * @throws IOException If the openings file cannot be read
+     */
+    public Arena(String engineA, String engineB, String[] args) throws IOException {
+        specA = engineA;
+        specB = engineB;
+        games = Integer.parseInt(option(args, "-games", "200"));
+        gameTime = (long)(Double.parseDouble(option(args, "-time", "10")) * 1e9);
+        hashSizeMB = Integer.parseInt(option(args, "-hash", "16"));
+        String openingsFile = option(args, "-openings", null);
+        openings = (openingsFile == null) ? null : Position.load(openingsFile);
+        randomMoves = Integer.parseInt(option(args, "-random", (openings == null) ? "8" : "0"));
+        seed = Long.parseLong(option(args, "-seed", "" + System.nanoTime()));
+
+        int sprtAt = -1;
+        for(int i = 0; i + 2 < args.length; i++) {
+            if(args[i].equals("-sprt"))
+                sprtAt = i;
+        }
+        sprt = sprtAt >= 0;
+        elo0 = sprt ? Double.parseDouble(args[sprtAt + 1]) : 0;
+        elo1 = sprt ? Double.parseDouble(args[sprtAt + 2]) : 0;
+        double alpha = Double.parseDouble(option(args, "-alpha", "0.05"));
+        double beta = Double.parseDouble(option(args, "-beta", "0.05"));
+        lowerBound = Math.log(beta / (1 - alpha));
+        upperBound = Math.log((1 - beta) / alpha);
+    }
+
+    /**
+     * Plays the match on a fixed pool of threads, each playing one game at a time
+     * @param concurrency Number of games played at once
+     */
+    public void run(int concurrency) {
+        System.out.println("Arena: " + specA + " vs " + specB + ", " + games + " games, " + concurrency
+                           + " at a time, " + (gameTime / 1e9) + " s per side" + (sprt ? ", SPRT [" + elo0 + ", " + elo1 + "]" : ""));
+        long start = System.nanoTime();
+
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+        for(int i = 0; i < concurrency; i++)
+            workers.add(pool.submit(this::work));
+        for(Future<?> worker : workers) {
+            try {
+                worker.get();
+            }
+            catch(Exception e) {
+                System.out.println("Arena worker failed: " + e);
+            }
+        }
+        pool.shutdown();
+
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Plays games until the match is over; each worker keeps its own pair of
+     * engines, so no search state is shared between games running at once
+     */
+    private void work() {
+        Engine a = new Engine(specA, hashSizeMB);
+        Engine b = new Engine(specB, hashSizeMB);
+        int game;
+        while(!stopRequested && (game = nextGame.getAndIncrement()) < games) {
+            boolean aBlack = (game & 1) == 0; //both games of a pair start from the same opening
+            int margin = play(aBlack ? a : b, aBlack ? b : a, opening(game / 2));
+            record(game, aBlack ? margin : -margin);
+        }
+        a.shutdown();
+        b.shutdown();
+    }
+
+    /**
+     * Builds the starting position of a pair of games: an opening from the file,
+     * or the initial position, followed by random moves
+     * @param pair Pair number
+     * @return Starting position
+     */
+    private Position opening(int pair) {
+        Random random = new Random(seed + pair);
+        Position position = (openings == null) ? Position.initial() : openings.get(random.nextInt(openings.size()));
+        long player = position.player();
+        long opponent = position.opponent();
+        boolean blackToMove = position.blackToMove;
+
+        for(int ply = 0; ply < randomMoves; ply++) {
+            long moves = BitBoard.legalMoves(player, opponent);
+            if(moves == 0)
+                break;
+            int pick = random.nextInt(BitBoard.count(moves));
+            for(int i = 0; i < pick; i++)
+                moves &= moves - 1;
+            int move = Long.numberOfTrailingZeros(moves);
+            long flipped = BitBoard.flips(player, opponent, move);
+            long moved = player | flipped | (1L << move);
+            player = opponent & ~flipped;
+            opponent = moved;
+            blackToMove = !blackToMove;
+        }
+
+        return blackToMove ? new Position(player, opponent, true) : new Position(opponent, player, false);
+    }
+
+    /**
+     * Plays one game; a side whose clock runs out or that plays an illegal move
+     * loses by the largest margin
+     * @param black Engine playing black
+     * @param white Engine playing white
+     * @param start Starting position
+     * @return Final disc margin for black
+     */
+    private int play(Engine black, Engine white, Position start) {
+        Engine[] engines = {black, white};
+        TimeManager[] clocks = {new TimeManager(gameTime), new TimeManager(gameTime)};
+        black.newGame();
+        white.newGame();
+
+        long player = start.player();
+        long opponent = start.opponent();
+        int side = start.blackToMove ? 0 : 1;
+        boolean passed = false;
+
+        while(true) {
+            long moves = BitBoard.legalMoves(player, opponent);
+            if(moves == 0) {
+                if(passed)
+                    break;
+                passed = true;
+            }
+            else {
+                passed = false;
+                clocks[side].startMove();
+                int move = engines[side].move(player, opponent, moves, clocks[side]);
+                clocks[side].endMove();
+                if(move < 0 || move > 63 || (moves & (1L << move)) == 0) { //1L << move wraps around for other values
+                    synchronized(this) {
+                        illegalMoves++;
+                    }
+                    return (side == 0) ? -64 : 64;
+                }
+                if(clocks[side].getRemaining() < 0) {
+                    synchronized(this) {
+                        timeLosses++;
+                    }
+                    return (side == 0) ? -64 : 64;
+                }
+                long flipped = BitBoard.flips(player, opponent, move);
+                player |= flipped | (1L << move);
+                opponent &= ~flipped;
+            }
+            long temp = player;
+            player = opponent;
+            opponent = temp;
+            side ^= 1;
+        }
+
+        int margin = BitBoard.count(player) - BitBoard.count(opponent);
+        return (side == 0) ? margin : -margin;
+    }
+
+    /**
+     * Adds a finished game to the totals, prints the running score and runs the SPRT
+     * @param game Game number
+     * @param margin Final disc margin for A
+     */
+    private synchronized void record(int game, int margin) {
+        if(margin > 0)
+            wins++;
+        else if(margin < 0)
+            losses++;
+        else
+            draws++;
+        int played = wins + losses + draws;
+        System.out.printf("Game %d: %s %+d  Score of %s vs %s: %d - %d - %d  [%.3f] %d%n", game + 1,
+                          specA, margin, specA, specB, wins, losses, draws, score(), played);
+
+        if(sprt && decision == null) {
+            double llr = logLikelihoodRatio();
+            if(llr >= upperBound)
+                decision = String.format("H1 accepted (LLR %.2f >= %.2f)", llr, upperBound);
+            else if(llr <= lowerBound)
+                decision = String.format("H0 accepted (LLR %.2f <= %.2f)", llr, lowerBound);
+            if(decision != null)
+                stopRequested = true;
+        }
+    }
+
+    /**
+     * Calculates A's share of the points
+     * @return Score from 0 to 1, draws counting half
+     */
+    private double score() {
+        int played = wins + losses + draws;
+        return (played == 0) ? 0.5 : (wins + 0.5 * draws) / played;
+    }
+
+    /**
+     * Calculates the variance of a single game's score
+     * @return Variance of the per-game points (1, 0.5 or 0)
+     */
+    private double variance() {
+        int played = wins + losses + draws;
+        double s = score();
+        return (wins * (1 - s) * (1 - s) + draws * (0.5 - s) * (0.5 - s) + losses * s * s) / Math.max(1, played);
+    }
+
+    /**
+     * Approximates the log-likelihood ratio of elo1 against elo0 for the games so
+     * far, treating the mean score as normally distributed
+     * @return Log-likelihood ratio
+     */
+    private double logLikelihoodRatio() {
+        double variance = variance();
+        if(variance == 0)
+            return 0;
+        double s0 = expectedScore(elo0);
+        double s1 = expectedScore(elo1);
+        int played = wins + losses + draws;
+        return played * (s1 - s0) * (2 * score() - s0 - s1) / (2 * variance);
+    }
+
+    /**
+     * Prints the final result
+     * @param seconds Length of the match
+     */
+    private void report(double seconds) {
+        int played = wins + losses + draws;
+        double s = score();
+        double error = ERROR_Z * Math.sqrt(variance() / Math.max(1, played));
+        double elo = eloDifference(s);
+        System.out.printf("Score of %s vs %s: %d - %d - %d  [%.3f] %d games in %.0f s%n",
+                          specA, specB, wins, losses, draws, s, played, seconds);
+        System.out.printf("Elo difference: %.1f +/- %.1f (95%%), win rate %.1f%%, %d lost on time, %d on illegal moves%n",
+                          elo, (eloDifference(s + error) - eloDifference(s - error)) / 2, 100.0 * wins / Math.max(1, played), timeLosses, illegalMoves);
+        if(sprt)
+            System.out.println("SPRT [" + elo0 + ", " + elo1 + "]: " + ((decision == null)
+                               ? String.format("no decision (LLR %.2f, bounds %.2f %.2f)", logLikelihoodRatio(), lowerBound, upperBound)
+                               : decision));
+    }
+
+    /**
+     * Converts an Elo difference to the expected score
+     * @param elo Elo difference
+     * @return Expected score from 0 to 1
+     */
+    private static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * Converts a score to an Elo difference
+     * @param score Score from 0 to 1; clamped away from 0 and 1
+     * @return Elo difference
+     */
+    private static double eloDifference(double score) {
+        double s = Math.min(Math.max(score, 1e-3), 1 - 1e-3);
+        return -400 * Math.log10(1 / s - 1);
+    }
+
+    /**
+     * One player in the arena, choosing moves as Board.getMyMove(clock) does: the
+     * endgame solver near the end, otherwise the alpha-beta or Monte Carlo search
+     */
+    private static class Engine {
+        private final boolean monteCarloEngine;
+        private int depth; //fixed search depth; 0 plays on the clock
+        private ParallelSearch search;
+        private MonteCarloSearch monteCarlo;
+        private EndgameSolver solver;
+
+        /**
+         * Creates an engine from its specification
+         * @param spec "ab" or "mcts" with optional ":key=value" settings
+         * @param hashSizeMB Size of each transposition table
+         */
+        Engine(String spec, int hashSizeMB) {
+            String[] parts = spec.split(":");
+            if(!parts[0].equals("ab") && !parts[0].equals("mcts"))
+                throw new IllegalArgumentException("Unknown engine: " + parts[0]);
+            monteCarloEngine = parts[0].equals("mcts");
+            int threads = 1; //the arena gets its parallelism from playing games at once
+            int[] levels = null;
+
+            for(int i = 1; i < parts.length; i++) {
+                String[] setting = parts[i].split("=", 2);
+                if(setting.length < 2)
+                    throw new IllegalArgumentException("Expected key=value: " + parts[i]);
+                if(setting[0].equals("depth"))
+                    depth = Integer.parseInt(setting[1]);
+                else if(setting[0].equals("threads"))
+                    threads = Integer.parseInt(setting[1]);
+                else if(setting[0].equals("selectivity"))
+                    levels = ProbCut.parseSelectivity(setting[1]);
+                else
+                    throw new IllegalArgumentException("Unknown engine setting: " + setting[0]);
+            }
+
+            if(monteCarloEngine) {
+                monteCarlo = new MonteCarloSearch(threads, MonteCarloSearch.DEFAULT_NODES);
+            }
+            else {
+                search = new ParallelSearch(threads, new TranspositionTable(hashSizeMB));
+                if(levels != null)
+                    search.setSelectivity(levels);
+            }
+            if(depth == 0)
+                solver = new EndgameSolver(hashSizeMB);
+        }
+
+        /**
+         * Forgets the previous game
+         */
+        void newGame() {
+            if(search != null)
+                search.getTable().clear();
+        }
+
+        /**
+         * Chooses a move
+         * @param player Bitboard of the side to move (this engine)
+         * @param opponent Bitboard of the other side
+         * @param moves Bitboard of legal moves; not empty
+         * @param clock This engine's clock, already timing the move
+         * @return Square to play
+         */
+        int move(long player, long opponent, long moves, TimeManager clock) {
+            if(BitBoard.count(moves) == 1)
+                return Long.numberOfTrailingZeros(moves);
+            long discHash = Zobrist.hash(player, opponent);
+            if(depth > 0)
+                return search.bestMove(player, opponent, discHash, depth);
+
+            int empties = 64 - BitBoard.count(player | opponent);
+            if(empties <= Board.endgameEmpties) {
+                int bit = solver.solve(player, opponent, clock.endgameLimit(empties));
+                if(bit >= 0)
+                    return bit;
+            }
+            if(monteCarloEngine)
+                return monteCarlo.search(player, opponent, clock.moveTarget(empties));
+            return search.iterativeDeepening(player, opponent, discHash, clock.softLimit(empties), clock.hardLimit(empties));
+        }
+
+        /**
+         * Stops the engine's helper threads
+         */
+        void shutdown() {
+            if(search != null)
+                search.shutdown();
+            if(monteCarlo != null)
+                monteCarlo.shutdown();
+        }
+    }
+
+    /**
+     * Runs a match
+     * @param args Engines and options (see the class comment)
+     * @throws IOException If a file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.out.println("Usage: Arena <engine A> <engine B> [-games N] [-concurrency N] [-time seconds] [-hash MB]\n"
+                               + "             [-random K] [-openings file] [-seed S] [-sprt elo0 elo1] [-alpha A] [-beta B]\n"
+                               + "             [-weights file] [-probcut file]");
+            return;
+        }
+        String weightsFile = option(args, "-weights", PatternEval.WEIGHTS_FILE);
+        if(new File(weightsFile).exists()) {
+            PatternEval.loadWeights(weightsFile);
+            Search.usePatterns = true;
+        }
+        String probCutFile = option(args, "-probcut", ProbCut.PARAMETERS_FILE);
+        if(new File(probCutFile).exists()) {
+            try {
+                ProbCut.load(probCutFile);
+            }
+            catch(IOException e) {
+                System.out.println("Could not load " + probCutFile + ", ProbCut is off: " + e.getMessage());
+            }
+        }
+
+        int concurrency = Integer.parseInt(option(args, "-concurrency", "" + Runtime.getRuntime().availableProcessors()));
+        new Arena(args[0], args[1], args).run(concurrency);
+    }
+
+    /**
+     * Reads a command line option
+     * @param args Command line
+     * @param name Option name
+     * @param fallback Value if the option is absent
+     * @return Option value
+     */
+    private static String option(String[] args, String name, String fallback) {
+        for(int i = 0; i + 1 < args.length; i++) {
+            if(args[i].equals(name))
+                return args[i + 1];
+        }
+        return fallback;
+    }
+}
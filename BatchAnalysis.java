@@ -0,0 +1,243 @@
+/**
+ * @author Kenny Tram
+ * Headless analysis of a file of positions: a pool of workers searches each
+ * position to a fixed depth or for a fixed time and the results are streamed out
+ * in input order, one line per position:
+ *   <position> <best move> <score> <depth> <nodes>
+ * Input is read as the workers need it, so files of any size can be analysed.
+ */
+package KKT_Othello;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+public class BatchAnalysis {
+    private static final Task END = new Task(-1, null); //queued once per worker to tell it the input is finished
+
+    private final int depth;
+    private final long timeLimit;
+    private final boolean clearTable;
+    private final int hashSizeMB;
+    private final BlockingQueue<Task> input; //bounded, so the reader waits for the workers
+    private final HashMap<Long, String> finished = new HashMap<Long, String>(); //results waiting for earlier lines
+    private final Semaphore ahead; //lines read but not yet written; caps the queue and the reorder buffer together
+    private final Writer output;
+    private long nextToWrite; //sequence number of the next line to write
+    private volatile IOException writeError; //first output failure; the reader stops reading once it is set
+
+    /**
+     * Sets up an analysis run
+     * @param depth Fixed search depth, or 0 to search for timeLimit instead
+     * @param timeLimit Nanoseconds per position when depth is 0
+     * @param clearTable True to clear each worker's table before every position, for reproducible output
+     * @param hashSizeMB Transposition table size of each worker
+     * @param threads Number of workers; at most a few lines per worker are read ahead of the output
+     * @param output Destination of the result lines
+     */
+    public BatchAnalysis(int depth, long timeLimit, boolean clearTable, int hashSizeMB, int threads, Writer output) {
+        this.depth = depth;
+        this.timeLimit = timeLimit;
+        this.clearTable = clearTable;
+        this.hashSizeMB = hashSizeMB;
+        this.output = output;
+        input = new ArrayBlockingQueue<Task>(threads * 16);
+        ahead = new Semaphore(threads * 16);
+    }
+
+    /**
+     * Analyses every position read from the reader; blank lines and lines starting with '#' are skipped
+     * @param reader Source of positions in the format read by Position.parse
+     * @param threads Number of workers
+     * @return Number of positions analysed
+     * @throws IOException If the input cannot be read or the output written
+     * @throws InterruptedException If the calling thread is interrupted
+     */
+    public long run(BufferedReader reader, int threads) throws IOException, InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++) {
+            workers[t] = new Thread(this::work, "analysis-" + t);
+            workers[t].start();
+        }
+
+        String line;
+        long sequence = 0;
+        while(writeError == null && (line = reader.readLine()) != null) {
+            line = line.trim();
+            if(!line.isEmpty() && !line.startsWith("#")) {
+                ahead.acquire(); //a slow line holds back the output, so reading must wait for it too
+                input.put(new Task(sequence++, line));
+            }
+        }
+        for(int t = 0; t < threads; t++)
+            input.put(END);
+        for(Thread worker : workers)
+            worker.join();
+
+        if(writeError != null)
+            throw writeError;
+        output.flush();
+        return nextToWrite;
+    }
+
+    /**
+     * Worker loop: takes lines until END, searching each with the worker's own search
+     */
+    private void work() {
+        Search search = new Search(new TranspositionTable(hashSizeMB));
+
+        while(true) {
+            Task task;
+            try {
+                task = input.take();
+            }
+            catch(InterruptedException e) {
+                return;
+            }
+            if(task == END)
+                return;
+
+            complete(task.sequence, analyse(search, task.line));
+        }
+    }
+
+    /**
+     * Searches one position
+     * @param search Worker's search
+     * @param line Position text
+     * @return Result line
+     */
+    private String analyse(Search search, String line) {
+        Position position;
+        try {
+            position = Position.parse(line);
+        }
+        catch(IllegalArgumentException e) {
+            return line + " error " + e.getMessage();
+        }
+
+        if(clearTable)
+            search.getTable().clear();
+        search.setPosition(position.player(), position.opponent());
+        int move = (depth > 0) ? search.bestMove(depth) : search.iterativeDeepening(timeLimit);
+
+        if(move == Search.PASS)
+            return position + " pass 0 0 0";
+        return position + " " + squareName(move) + " " + search.getScore() + " " + search.getDepth() + " " + search.getNodes();
+    }
+
+    /**
+     * Records a result and writes every result that is now next in input order;
+     * after a write error the results are still taken in order but dropped, so
+     * the reader is never left waiting for a permit
+     * @param sequence Input line number of the result
+     * @param result Result line
+     */
+    private synchronized void complete(long sequence, String result) {
+        finished.put(sequence, result);
+
+        String next;
+        while((next = finished.remove(nextToWrite)) != null) {
+            nextToWrite++;
+            ahead.release();
+            if(writeError != null)
+                continue;
+            try {
+                output.write(next);
+                output.write('\n');
+            }
+            catch(IOException e) {
+                writeError = e;
+            }
+        }
+        try {
+            if(writeError == null)
+                output.flush();
+        }
+        catch(IOException e) {
+            writeError = e;
+        }
+    }
+
+    /**
+     * One input line and its position in the input
+     */
+    private static class Task {
+        final long sequence;
+        final String line;
+
+        /**
+         * Creates a task
+         * @param number Sequence number of the line among the positions read
+         * @param text Position text
+         */
+        Task(long number, String text) {
+            sequence = number;
+            line = text;
+        }
+    }
+
+    /**
+     * Names a square the way moves are usually written
+     * @param bit Square (bit number)
+     * @return Column letter and row number, e.g. "f5"
+     */
+    public static String squareName(int bit) {
+        return (char)('a' + bit % 8) + Integer.toString(bit / 8 + 1);
+    }
+
+    /**
+     * Runs the analysis
+     * @param args <positions file or -> [-depth D] [-time ms] [-threads N] [-hash MB] [-output file] [-clear]
+     * @throws Exception If a file cannot be read or written
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length < 1) {
+            System.out.println("Usage: BatchAnalysis <positions file or -> [-depth D] [-time ms] [-threads N] [-hash MB]"
+                               + " [-output file] [-clear]");
+            return;
+        }
+
+        int depth = 8;
+        long timeLimit = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int hashSizeMB = 16;
+        String outputFile = null;
+        boolean clearTable = false;
+        for(int i = 1; i < args.length; i++) {
+            if(args[i].equals("-depth"))
+                depth = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-time")) {
+                timeLimit = Long.parseLong(args[++i]) * 1000000L;
+                depth = 0;
+            }
+            else if(args[i].equals("-threads"))
+                threads = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-hash"))
+                hashSizeMB = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-output"))
+                outputFile = args[++i];
+            else if(args[i].equals("-clear"))
+                clearTable = true;
+        }
+
+        long start = System.nanoTime();
+        long analysed;
+        try(BufferedReader reader = new BufferedReader(args[0].equals("-") ? new InputStreamReader(System.in) : new FileReader(args[0]));
+            Writer output = new BufferedWriter((outputFile == null) ? new OutputStreamWriter(System.out) : new FileWriter(outputFile))) {
+            analysed = new BatchAnalysis(depth, timeLimit, clearTable, hashSizeMB, threads, output).run(reader, threads);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.err.printf("%d positions in %.1f s (%.1f positions/sec, %d threads)%n",
+                          analysed, seconds, analysed / Math.max(seconds, 1e-9), threads);
+    }
+}
@@ -0,0 +1,200 @@
+/**
+ * @author Kenny Tram
+ * Microbenchmarks for move generation, applyMove, evaluate and search over the
+ * positions in positions.txt; run before and after engine changes to catch regressions
+ */
+package KKT_Othello;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.function.LongSupplier;
+
+public class Benchmark {
+    private static int warmupIterations = 3;
+    private static int measureIterations = 5;
+    private static long iterationNanos = 1000000000L; //length of each iteration
+
+    private static long sink; //results are accumulated here so the JIT cannot drop the work
+
+    /**
+     * Two-sided 99.9% Student t critical values, indexed by degrees of freedom (1 - 30);
+     * with only a few iterations the normal value 3.29 would make the error far too small
+     */
+    private static final double T_999[] = {Double.NaN, 636.62, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041,
+                                           4.781, 4.587, 4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922,
+                                           3.883, 3.850, 3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674,
+                                           3.659, 3.646};
+
+    /**
+     * Runs every benchmark, or only those whose names contain a filter string
+     * @param args [suite file] [-warmup N] [-iterations N] [-time ms] [-filter text]
+     * @throws IOException If the suite file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        String fileName = "positions.txt";
+        String filter = "";
+
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-warmup"))
+                warmupIterations = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-iterations"))
+                measureIterations = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-time"))
+                iterationNanos = Long.parseLong(args[++i]) * 1000000L;
+            else if(args[i].equals("-filter"))
+                filter = args[++i];
+            else
+                fileName = args[i];
+        }
+
+        ArrayList<Position> suite = Position.load(fileName);
+        Player me = new Player('B', Board.ME);
+        Player opponent = new Player('W', Board.OPPONENT);
+        Board[] boards = new Board[suite.size()];
+        for(int i = 0; i < boards.length; i++) {
+            boards[i] = new Board(me, opponent);
+            boards[i].setupBoard(suite.get(i).player(), suite.get(i).opponent());
+        }
+        Search search = new Search(new TranspositionTable(4));
+
+        System.out.printf("%-28s %12s %10s  %s%n", "Benchmark", "Score", "Error", "Units");
+
+        run("board.generateMoves.bitboard", filter, () -> {
+            Board.useBitboards = true;
+            long total = 0;
+            for(Board board : boards)
+                total += board.generateMoves(me).size();
+            return total;
+        });
+
+        run("board.generateMoves.mailbox", filter, () -> {
+            Board.useBitboards = false;
+            long total = 0;
+            for(Board board : boards)
+                total += board.generateMoves(me).size();
+            Board.useBitboards = true;
+            return total;
+        });
+
+        run("board.applyMove", filter, () -> {
+            long total = 0;
+            for(Board board : boards) {
+                Board copy = new Board(board, me, opponent);
+                long moves = copy.legalMoves(Board.ME);
+                copy.applyMove(Board.ME, new Move(me.getColor(), BitBoard.toIndex(Long.numberOfTrailingZeros(moves))));
+                total += copy.getHash();
+            }
+            return total;
+        });
+
+        run("board.evaluate", filter, () -> {
+            long total = 0;
+            for(Board board : boards)
+                total += (long)board.evaluate();
+            return total;
+        });
+
+        run("bitboard.legalMoves", filter, () -> {
+            long total = 0;
+            for(Position position : suite)
+                total += BitBoard.legalMoves(position.player(), position.opponent());
+            return total;
+        });
+
+        run("search.evaluate", filter, () -> {
+            long total = 0;
+            for(Position position : suite)
+                total += Search.evaluate(position.player(), position.opponent());
+            return total;
+        });
+
+        for(int depth = 4; depth <= 6; depth += 2) {
+            int searchDepth = depth;
+            run("search.alphaBeta.depth" + depth, filter, () -> {
+                long total = 0;
+                for(Position position : suite) {
+                    search.getTable().clear();
+                    search.setPosition(position.player(), position.opponent());
+                    total += search.bestMove(searchDepth);
+                }
+                return total;
+            });
+        }
+
+        run("board.alphaBeta.depth3", filter, () -> {
+            long total = 0;
+            for(Board board : boards)
+                total += board.alphaBeta(board, 0, me, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 3).getIndex();
+            return total;
+        });
+
+        run("perft.depth6", filter, () -> Perft.count(Position.initial().player(), Position.initial().opponent(), 6, false));
+    }
+
+    /**
+     * Runs one benchmark: warmup iterations, then measured iterations of a fixed
+     * length, reporting the mean rate and its 99.9% confidence half-width from
+     * the Student t distribution
+     * @param name Benchmark name
+     * @param filter Only benchmarks whose name contains this are run
+     * @param operation One operation; its result is consumed so it cannot be optimized away
+     */
+    private static void run(String name, String filter, LongSupplier operation) {
+        if(!name.contains(filter))
+            return;
+
+        for(int i = 0; i < warmupIterations; i++)
+            measure(operation);
+
+        double[] rates = new double[measureIterations];
+        double mean = 0;
+        for(int i = 0; i < measureIterations; i++) {
+            rates[i] = measure(operation);
+            mean += rates[i] / measureIterations;
+        }
+
+        double variance = 0;
+        for(double rate : rates)
+            variance += (rate - mean) * (rate - mean) / Math.max(1, measureIterations - 1);
+        double error = criticalValue(measureIterations - 1) * Math.sqrt(variance / measureIterations);
+
+        System.out.printf("%-28s %12.1f %10.1f  ops/s%n", name, mean, error);
+    }
+
+    /**
+     * Looks up the two-sided 99.9% t critical value
+     * @param degrees Degrees of freedom (measured iterations - 1)
+     * @return Critical value; beyond the table, conservative values down to the normal 3.29
+     */
+    private static double criticalValue(int degrees) {
+        if(degrees < 1)
+            return Double.NaN;
+        if(degrees < T_999.length)
+            return T_999[degrees];
+        if(degrees < 40)
+            return T_999[T_999.length - 1];
+        if(degrees < 60)
+            return 3.551; //40 degrees of freedom
+        if(degrees < 120)
+            return 3.460; //60
+        return (degrees < 1000) ? 3.373 : 3.291; //120, then the normal limit
+    }
+
+    /**
+     * Repeats an operation for one iteration
+     * @param operation Operation being measured
+     * @return Operations per second
+     */
+    private static double measure(LongSupplier operation) {
+        long start = System.nanoTime();
+        long now = start;
+        long count = 0;
+
+        while(now - start < iterationNanos) {
+            sink += operation.getAsLong();
+            count++;
+            now = System.nanoTime();
+        }
+
+        return count / ((now - start) / 1e9);
+    }
+}
@@ -0,0 +1,250 @@
+/**
+ * @author Kenny Tram
+ * Bitboard helpers for the 8x8 Othello board
+ */
+package KKT_Othello;
+
+public class BitBoard {
+    public static final long NOT_A_FILE = 0xfefefefefefefefeL; //every square except column a
+    public static final long NOT_H_FILE = 0x7f7f7f7f7f7f7f7fL; //every square except column h
+
+    /**
+     * Bit shifts for each direction, in the same order as Board.directions
+     * North, Northeast, East, Southeast, South, Southwest, West, Northwest
+     */
+    private static final int SHIFTS[] = {-8, -7, 1, 9, 8, 7, -1, -9};
+    private static final long MASKS[] = {-1L, NOT_A_FILE, NOT_A_FILE, NOT_A_FILE,
+                                         -1L, NOT_H_FILE, NOT_H_FILE, NOT_H_FILE};
+
+    /**
+     * Converts a mailbox index (11 - 88) to a bit number (0 - 63)
+     * @param index Position on the mailbox game board
+     * @return Bit number; a1 = 0, h1 = 7, a8 = 56, h8 = 63
+     */
+    public static int toBit(int index) {
+        return (index/10 - 1)*8 + (index%10 - 1);
+    }
+
+    /**
+     * Converts a bit number (0 - 63) to a mailbox index (11 - 88)
+     * @param bit Bit number
+     * @return Position on the mailbox game board
+     */
+    public static int toIndex(int bit) {
+        return (bit/8 + 1)*10 + (bit%8 + 1);
+    }
+
+    /**
+     * Shifts every disc in the bitboard one square in the given direction,
+     * dropping discs that would wrap around the edge of the board
+     * @param discs Bitboard being shifted
+     * @param dir Direction number (0 - 7)
+     * @return Shifted bitboard
+     */
+    public static long shift(long discs, int dir) {
+        int amount = SHIFTS[dir];
+        if(amount > 0)
+            return (discs << amount) & MASKS[dir];
+        else
+            return (discs >>> -amount) & MASKS[dir];
+    }
+
+    /**
+     * Generates every legal move for the player using parallel prefix fills
+     * @param player Bitboard of the player to move
+     * @param opponent Bitboard of the opponent
+     * @return Bitboard with one bit set per legal move
+     */
+    public static long legalMoves(long player, long opponent) {
+        long empty = ~(player | opponent);
+        long moves = 0;
+
+        for(int dir = 0; dir < 8; dir++) {
+            long chain = shift(player, dir) & opponent;
+            chain |= shift(chain, dir) & opponent;
+            chain |= shift(chain, dir) & opponent;
+            chain |= shift(chain, dir) & opponent;
+            chain |= shift(chain, dir) & opponent;
+            chain |= shift(chain, dir) & opponent;
+            moves |= shift(chain, dir) & empty;
+        }
+
+        return moves;
+    }
+
+    /**
+     * Calculates the opposing discs flipped by placing a disc on the given square
+     * @param player Bitboard of the player making the move
+     * @param opponent Bitboard of the opponent
+     * @param bit Bit number of the square being played
+     * @return Bitboard of flipped discs; 0 if the move flips nothing
+     */
+    public static long flips(long player, long opponent, int bit) {
+        long square = 1L << bit;
+        long flipped = 0;
+
+        for(int dir = 0; dir < 8; dir++) {
+            long line = 0;
+            long next = shift(square, dir);
+            while((next & opponent) != 0) {
+                line |= next;
+                next = shift(next, dir);
+            }
+            if((next & player) != 0)
+                flipped |= line;
+        }
+
+        return flipped;
+    }
+
+    /**
+     * Mirrors the board top to bottom (row 1 becomes row 8)
+     * @param discs Bitboard being flipped
+     * @return Flipped bitboard
+     */
+    public static long flipVertical(long discs) {
+        return Long.reverseBytes(discs);
+    }
+
+    /**
+     * Mirrors the board left to right (column a becomes column h)
+     * @param discs Bitboard being mirrored
+     * @return Mirrored bitboard
+     */
+    public static long mirrorHorizontal(long discs) {
+        discs = ((discs >>> 1) & 0x5555555555555555L) | ((discs & 0x5555555555555555L) << 1);
+        discs = ((discs >>> 2) & 0x3333333333333333L) | ((discs & 0x3333333333333333L) << 2);
+        discs = ((discs >>> 4) & 0x0f0f0f0f0f0f0f0fL) | ((discs & 0x0f0f0f0f0f0f0f0fL) << 4);
+        return discs;
+    }
+
+    /**
+     * Mirrors the board about the a1-h8 diagonal
+     * @param discs Bitboard being transposed
+     * @return Transposed bitboard
+     */
+    public static long flipDiagonal(long discs) {
+        long swap = 0x0f0f0f0f00000000L & (discs ^ (discs << 28));
+        discs ^= swap ^ (swap >>> 28);
+        swap = 0x3333000033330000L & (discs ^ (discs << 14));
+        discs ^= swap ^ (swap >>> 14);
+        swap = 0x5500550055005500L & (discs ^ (discs << 7));
+        discs ^= swap ^ (swap >>> 7);
+        return discs;
+    }
+
+    /**
+     * Applies one of the 8 board symmetries: the diagonal flip if bit 2 is set,
+     * then the horizontal mirror if bit 0 is set, then the vertical flip if bit 1 is set
+     * @param discs Bitboard being transformed
+     * @param symmetry Symmetry number (0 - 7); 0 is the identity
+     * @return Transformed bitboard
+     */
+    public static long transform(long discs, int symmetry) {
+        if((symmetry & 4) != 0)
+            discs = flipDiagonal(discs);
+        if((symmetry & 1) != 0)
+            discs = mirrorHorizontal(discs);
+        if((symmetry & 2) != 0)
+            discs = flipVertical(discs);
+        return discs;
+    }
+
+    /**
+     * Undoes transform by applying the same flips in reverse order
+     * @param discs Transformed bitboard
+     * @param symmetry Symmetry number passed to transform
+     * @return Original bitboard
+     */
+    public static long untransform(long discs, int symmetry) {
+        if((symmetry & 2) != 0)
+            discs = flipVertical(discs);
+        if((symmetry & 1) != 0)
+            discs = mirrorHorizontal(discs);
+        if((symmetry & 4) != 0)
+            discs = flipDiagonal(discs);
+        return discs;
+    }
+
+    /**
+     * Applies a board symmetry to a single square
+     * @param bit Square (bit number)
+     * @param symmetry Symmetry number for transform
+     * @return Transformed square
+     */
+    public static int transformSquare(int bit, int symmetry) {
+        return Long.numberOfTrailingZeros(transform(1L << bit, symmetry));
+    }
+
+    /**
+     * Maps a square back through a board symmetry
+     * @param bit Transformed square (bit number)
+     * @param symmetry Symmetry number passed to transform
+     * @return Original square
+     */
+    public static int untransformSquare(int bit, int symmetry) {
+        return Long.numberOfTrailingZeros(untransform(1L << bit, symmetry));
+    }
+
+    /**
+     * Picks the symmetry that puts a position in its canonical orientation: the one
+     * with the smallest transformed player bitboard, ties broken by the opponent's.
+     * The player's discs are flipped diagonally only once, and the opponent's discs
+     * are transformed only to break ties (symmetric player discs)
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return Symmetry number for transform; symmetric positions give the same canonical boards
+     */
+    public static int canonicalSymmetry(long player, long opponent) {
+        long diagonal = flipDiagonal(player);
+        int best = 0;
+        long bestPlayer = player;
+        long bestOpponent = opponent;
+
+        for(int symmetry = 1; symmetry < 8; symmetry++) {
+            long image = ((symmetry & 4) != 0) ? diagonal : player;
+            if((symmetry & 1) != 0)
+                image = mirrorHorizontal(image);
+            if((symmetry & 2) != 0)
+                image = flipVertical(image);
+
+            int order = Long.compareUnsigned(image, bestPlayer);
+            if(order > 0)
+                continue;
+            long other = transform(opponent, symmetry);
+            if(order < 0 || Long.compareUnsigned(other, bestOpponent) < 0) {
+                best = symmetry;
+                bestPlayer = image;
+                bestOpponent = other;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Finds the symmetries that leave a position unchanged
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return One bit per symmetry number; bit 0 (the identity) is always set
+     */
+    public static int symmetries(long player, long opponent) {
+        int found = 1;
+
+        for(int symmetry = 1; symmetry < 8; symmetry++) {
+            if(transform(player, symmetry) == player && transform(opponent, symmetry) == opponent)
+                found |= 1 << symmetry;
+        }
+
+        return found;
+    }
+
+    /**
+     * Counts the squares set in the bitboard
+     * @param discs Bitboard being counted
+     * @return Number of set bits
+     */
+    public static int count(long discs) {
+        return Long.bitCount(discs);
+    }
+}
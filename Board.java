@@ -3,8 +3,8 @@
  * Pieces of code are modifications of Marietta Cameron's code
  */
 package KKT_Othello;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.util.Random;
 
 public class Board {
@@ -26,6 +26,50 @@ public class Board {
          */
     
     public int[] board = new int[100];
+    private long myDiscs; //bitboard of ME pieces, kept in sync with board[]
+    private long oppDiscs; //bitboard of OPPONENT pieces, kept in sync with board[]
+    private long hash; //Zobrist hash of the pieces, kept in sync with board[]
+    
+    /**
+     * Evaluation features kept up to date by setSquare, so evaluate never scans board[]
+     */
+    private int myCount; //ME pieces on the board
+    private int oppCount; //OPPONENT pieces on the board
+    private int emptyCount; //empty squares; also the length of emptySquares
+    private int myCorners; //corners held by ME
+    private int oppCorners; //corners held by OPPONENT
+    private int myFrontier; //empty squares next to at least one ME piece
+    private int oppFrontier; //empty squares next to at least one OPPONENT piece
+    private byte[] myNeighbours = new byte[100]; //ME pieces next to each square
+    private byte[] oppNeighbours = new byte[100]; //OPPONENT pieces next to each square
+    private byte[] emptySquares = new byte[64]; //indexes of the empty squares, in no particular order
+    private byte[] emptySlot = new byte[100]; //position of each empty square in emptySquares
+    public static boolean useBitboards = true; //false falls back to the mailbox move generator
+    public static boolean useSearch = true; //false falls back to the copying alphaBeta search
+    public static int searchDepth = 2; //plies searched by getMyMove
+    public static int hashSizeMB = TranspositionTable.DEFAULT_SIZE_MB; //size of the search's transposition table
+    public static int searchThreads = Runtime.getRuntime().availableProcessors(); //threads used by the search
+    public static int endgameEmpties = 18; //getMyMove solves the game exactly from this many empty squares
+    public static OpeningBook book; //consulted before searching; null plays without a book
+    public static final int PONDER_OFF = 0; //the program is idle while the opponent thinks
+    public static final int PONDER_PREDICTED = 1; //search the position after the opponent's expected reply
+    public static final int PONDER_ALL = 2; //search the opponent's position, which covers every reply
+    public static final int PREDICT_DEPTH = 6; //depth of the search that predicts the opponent's reply
+    private static final long PONDER_TIME = Long.MAX_VALUE / 4; //pondering runs until the opponent moves
+    public static int ponderMode = PONDER_OFF; //what getOpponent searches while it waits
+    public static final int ENGINE_ALPHABETA = 0; //iterative deepening alpha-beta search
+    public static final int ENGINE_MCTS = 1; //Monte Carlo tree search
+    public static int engine = ENGINE_ALPHABETA; //search getMyMove(clock) uses before the endgame
+    public static int mctsNodes = MonteCarloSearch.DEFAULT_NODES; //tree capacity of the Monte Carlo search
+    private EndgameSolver solver;
+    private ParallelSearch search; //reused between calls so the search stacks and threads are created once
+    private MonteCarloSearch monteCarlo; //reused between calls so the tree arrays are allocated once
+    private Thread ponderThread; //searches while getOpponent waits; null when not pondering
+    private volatile boolean pondering; //cleared to tell the ponder thread not to start its next search
+    private int predictedReply; //square (bit number) the ponder thread expects the opponent to play; -1 if none
+    private boolean ponderSolved; //true if the ponder thread ran the endgame solver rather than the search
+    private int[] principalVariation = new int[Search.MAX_PLY]; //line the last search expects, the program's move first
+    private int expectedReply = -1; //opponent's reply in that line, if the program played its first move; -1 if unknown
     private Player me;
     private Player opponent;
     private String[] colLabels = {" ", " ", "a", "b", "c", "d", "e", "f", "g", "h", " "};
@@ -53,8 +97,30 @@ public class Board {
     public Board(Board oldBoard, Player player1, Player player2) {
         me = player1;
         opponent = player2;
-        for(int i = 0; i < board.length; i++)
-            board[i] = oldBoard.board[i];
+        System.arraycopy(oldBoard.board, 0, board, 0, board.length);
+        myDiscs = oldBoard.myDiscs;
+        oppDiscs = oldBoard.oppDiscs;
+        hash = oldBoard.hash;
+        
+        myCount = oldBoard.myCount;
+        oppCount = oldBoard.oppCount;
+        emptyCount = oldBoard.emptyCount;
+        myCorners = oldBoard.myCorners;
+        oppCorners = oldBoard.oppCorners;
+        myFrontier = oldBoard.myFrontier;
+        oppFrontier = oldBoard.oppFrontier;
+        System.arraycopy(oldBoard.myNeighbours, 0, myNeighbours, 0, myNeighbours.length);
+        System.arraycopy(oldBoard.oppNeighbours, 0, oppNeighbours, 0, oppNeighbours.length);
+        System.arraycopy(oldBoard.emptySquares, 0, emptySquares, 0, emptyCount);
+        System.arraycopy(oldBoard.emptySlot, 0, emptySlot, 0, emptySlot.length);
+    }
+    
+    /**
+     * Makes a copy of the provided game board from the same perspective
+     * @param oldBoard The game board being copied
+     */
+    public Board(Board oldBoard) {
+        this(oldBoard, oldBoard.me, oldBoard.opponent);
     }
     
     /**
@@ -67,6 +133,25 @@ public class Board {
             else
                 board[i] = EMPTY;
         }
+        myDiscs = 0;
+        oppDiscs = 0;
+        hash = 0;
+        
+        myCount = 0;
+        oppCount = 0;
+        emptyCount = 0;
+        myCorners = 0;
+        oppCorners = 0;
+        myFrontier = 0;
+        oppFrontier = 0;
+        for(int i = 0; i < board.length; i++) {
+            myNeighbours[i] = 0;
+            oppNeighbours[i] = 0;
+            if(board[i] == EMPTY) {
+                emptySlot[i] = (byte)emptyCount;
+                emptySquares[emptyCount++] = (byte)i;
+            }
+        }
     }
     
     /**
@@ -75,17 +160,161 @@ public class Board {
      */
     public void setupBoard(char myColor) {
         if(myColor == 'B' ) {
-            board[45] = ME;
-            board[54] = ME;
-            board[44] = OPPONENT;
-            board[55] = OPPONENT;
+            setSquare(45, ME);
+            setSquare(54, ME);
+            setSquare(44, OPPONENT);
+            setSquare(55, OPPONENT);
+        }
+        else {
+            setSquare(44, ME);
+            setSquare(55, ME);
+            setSquare(45, OPPONENT);
+            setSquare(54, OPPONENT);
+        }
+    }
+    
+    /**
+     * Replaces the pieces on the board with the given position
+     * @param mine Bitboard of the program's pieces
+     * @param theirs Bitboard of the opponent's pieces
+     */
+    public void setupBoard(long mine, long theirs) {
+        generateEmptyBoard();
+        for(int bit = 0; bit < 64; bit++) {
+            if((mine & (1L << bit)) != 0)
+                setSquare(BitBoard.toIndex(bit), ME);
+            else if((theirs & (1L << bit)) != 0)
+                setSquare(BitBoard.toIndex(bit), OPPONENT);
+        }
+    }
+    
+    /**
+     * Places a piece on the board, updating both the mailbox and the bitboards
+     * @param index Position on the game board
+     * @param player Owner of the piece (ME or OPPONENT)
+     */
+    private void setSquare(int index, int player) {
+        int bit = BitBoard.toBit(index);
+        long square = 1L << bit;
+        
+        if(board[index] == ME)
+            hash ^= Zobrist.KEYS[0][bit];
+        else if(board[index] == OPPONENT)
+            hash ^= Zobrist.KEYS[1][bit];
+        hash ^= Zobrist.KEYS[(player == ME) ? 0 : 1][bit];
+        
+        int previous = board[index];
+        board[index] = player;
+        if(player == ME) {
+            myDiscs |= square;
+            oppDiscs &= ~square;
+        }
+        else {
+            oppDiscs |= square;
+            myDiscs &= ~square;
+        }
+        
+        if(previous == player)
+            return;
+        if(previous == EMPTY) {
+            byte last = emptySquares[--emptyCount]; //swap the last empty square into this one's slot
+            emptySquares[emptySlot[index]] = last;
+            emptySlot[last] = emptySlot[index];
+            if(myNeighbours[index] > 0)
+                myFrontier--;
+            if(oppNeighbours[index] > 0)
+                oppFrontier--;
         }
         else {
-            board[44] = ME;
-            board[55] = ME;
-            board[45] = OPPONENT;
-            board[54] = OPPONENT;
+            countPiece(index, previous, -1);
+        }
+        countPiece(index, player, 1);
+    }
+    
+    /**
+     * Adds or removes a piece from the evaluation features: piece and corner
+     * counts, and the neighbour counts and frontier of the surrounding squares
+     * @param index Position of the piece
+     * @param player Owner of the piece (ME or OPPONENT)
+     * @param change 1 if the piece was placed, -1 if it was taken away
+     */
+    private void countPiece(int index, int player, int change) {
+        boolean corner = (index == 11 || index == 18 || index == 81 || index == 88);
+        byte[] neighbours;
+        int frontier = 0;
+        
+        if(player == ME) {
+            myCount += change;
+            if(corner)
+                myCorners += change;
+            neighbours = myNeighbours;
+        }
+        else {
+            oppCount += change;
+            if(corner)
+                oppCorners += change;
+            neighbours = oppNeighbours;
+        }
+        
+        for(int i = 0; i < directions.length; i++) {
+            int next = index + directions[i];
+            neighbours[next] += change;
+            if(board[next] == EMPTY) {
+                if(change > 0 && neighbours[next] == 1)
+                    frontier++;
+                else if(change < 0 && neighbours[next] == 0)
+                    frontier--;
+            }
         }
+        
+        if(player == ME)
+            myFrontier += frontier;
+        else
+            oppFrontier += frontier;
+    }
+    
+    /**
+     * Rebuilds the bitboards, hash and evaluation features from board[]; needed only if board[] is written directly
+     */
+    public void syncBitboards() {
+        long mine = 0;
+        long theirs = 0;
+        for(int i = 11; i < 89; i++) {
+            if(board[i] == ME)
+                mine |= 1L << BitBoard.toBit(i);
+            else if(board[i] == OPPONENT)
+                theirs |= 1L << BitBoard.toBit(i);
+        }
+        setupBoard(mine, theirs); //replays every piece so the evaluation features are rebuilt too
+    }
+    
+    /**
+     * Returns the bitboard of the given player's pieces
+     * @param player ME or OPPONENT
+     * @return Bitboard of the player's pieces
+     */
+    public long getDiscs(int player) {
+        return (player == ME) ? myDiscs : oppDiscs;
+    }
+    
+    /**
+     * Returns the Zobrist hash of the pieces on the board
+     * @return Hash with ME's pieces as owner 0 (see Zobrist.hash)
+     */
+    public long getHash() {
+        return hash;
+    }
+    
+    /**
+     * Generates a bitboard of every legal move for the given player
+     * @param player ME or OPPONENT
+     * @return Bitboard with one bit set per legal move
+     */
+    public long legalMoves(int player) {
+        if(player == ME)
+            return BitBoard.legalMoves(myDiscs, oppDiscs);
+        else
+            return BitBoard.legalMoves(oppDiscs, myDiscs);
     }
     
     /**
@@ -93,8 +322,8 @@ public class Board {
      * @return Inferred best move
      */
     public Move getMyMove() {
-        double alpha = Double.MIN_VALUE; //-infinity
-        double beta = Double.MAX_VALUE; //infinity
+        double alpha = Double.NEGATIVE_INFINITY;
+        double beta = Double.POSITIVE_INFINITY;
         
         ArrayList<Move> moves = generateMoves(me);
         
@@ -103,7 +332,221 @@ public class Board {
             return move;
         }
         
-        return alphaBeta(this, 0, me, alpha, beta, 2);
+        if(useSearch) {
+            int bit = getSearch().bestMove(myDiscs, oppDiscs, hash, searchDepth);
+            reportSearch(bit);
+            return new Move(me.getColor(), BitBoard.toIndex(bit));
+        }
+        
+        return alphaBeta(this, 0, me, alpha, beta, searchDepth);
+    }
+    
+    /**
+     * Determines the player's best move with an iterative deepening search that
+     * keeps going deeper while the game clock allows; a single legal move is played at once
+     * @param clock Game clock, already timing this move
+     * @return Inferred best move
+     */
+    public Move getMyMove(TimeManager clock) {
+        expectedReply = -1;
+        long moves = legalMoves(ME);
+        if(!useSearch || moves == 0)
+            return getMyMove();
+        if(BitBoard.count(moves) == 1) {
+            System.out.println("C Only one legal move");
+            return new Move(me.getColor(), BitBoard.toIndex(Long.numberOfTrailingZeros(moves)));
+        }
+        
+        if(book != null) {
+            int bit = book.lookup(myDiscs, oppDiscs);
+            if(bit >= 0 && (legalMoves(ME) & (1L << bit)) != 0) {
+                System.out.println("C Book move");
+                return new Move(me.getColor(), BitBoard.toIndex(bit));
+            }
+        }
+        
+        if(emptyCount <= endgameEmpties) {
+            int bit = solveEndgame(clock.endgameLimit(emptyCount));
+            if(bit >= 0)
+                return new Move(me.getColor(), BitBoard.toIndex(bit));
+            //out of time; fall back to the heuristic search with what is left
+        }
+        
+        if(engine == ENGINE_MCTS) {
+            int bit = getMonteCarlo().search(myDiscs, oppDiscs, clock.moveTarget(emptyCount));
+            monteCarlo.report();
+            return new Move(me.getColor(), BitBoard.toIndex(bit));
+        }
+        
+        if(!Search.reuseTree)
+            getSearch().getTable().clear();
+        int bit = getSearch().iterativeDeepening(myDiscs, oppDiscs, hash, clock.softLimit(emptyCount), clock.hardLimit(emptyCount));
+        reportSearch(bit);
+        return new Move(me.getColor(), BitBoard.toIndex(bit));
+    }
+    
+    /**
+     * Solves the rest of the game exactly and reports the result
+     * @param timeLimit Nanoseconds available for the solve
+     * @return Square (bit number) of the best move, or -1 if the solve ran out of time
+     */
+    private int solveEndgame(long timeLimit) {
+        if(solver == null)
+            solver = new EndgameSolver(hashSizeMB);
+        
+        long start = System.nanoTime();
+        int bit = solver.solve(myDiscs, oppDiscs, timeLimit);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        
+        if(bit < 0) {
+            System.out.println("C Endgame solve ran out of time");
+        }
+        else if(solver.getScore() == EndgameSolver.UNKNOWN) {
+            String[] results = {"loss", "draw", "win"};
+            System.out.println("C Endgame solved: " + results[solver.getResult() + 1] + " (margin unknown)");
+        }
+        else {
+            System.out.println("C Endgame solved: score " + solver.getScore());
+        }
+        System.out.println("C Endgame nodes: " + solver.getNodes() + " (" + (long)(solver.getNodes() / Math.max(seconds, 1e-9)) + " nodes/sec)");
+        
+        return bit;
+    }
+    
+    /**
+     * Prints the statistics and expected line of the last search as comment lines,
+     * adds them to the log and remembers the reply the search expects
+     * @param bit Square (bit number) the program is about to play
+     */
+    private void reportSearch(int bit) {
+        SearchStats stats = search.getStats();
+        stats.print();
+        stats.log(64 - emptyCount);
+        
+        int length = search.getPrincipalVariation(principalVariation);
+        StringBuilder line = new StringBuilder("C PV:");
+        for(int i = 0; i < length; i++)
+            line.append(' ').append((principalVariation[i] == Search.PASS) ? "pass" : BatchAnalysis.squareName(principalVariation[i]));
+        System.out.println(line);
+        expectedReply = (length >= 2 && principalVariation[0] == bit) ? principalVariation[1] : -1;
+    }
+    
+    /**
+     * Starts searching on the opponent's time, if pondering is on. Every position
+     * is keyed as getMyMove's searches key it, so whatever the ponder thread
+     * stores in the shared table is found again once the opponent has moved.
+     */
+    private void startPondering() {
+        if(ponderMode == PONDER_OFF || !useSearch || engine != ENGINE_ALPHABETA || legalMoves(OPPONENT) == 0)
+            return;
+        
+        long mine = myDiscs;
+        long theirs = oppDiscs;
+        long discHash = hash;
+        getSearch();
+        if(solver == null && emptyCount - 1 <= endgameEmpties)
+            solver = new EndgameSolver(hashSizeMB);
+        int expected = expectedReply;
+        predictedReply = -1;
+        ponderSolved = false;
+        pondering = true;
+        ponderThread = new Thread(() -> ponder(mine, theirs, discHash, expected), "ponder");
+        ponderThread.setDaemon(true);
+        ponderThread.start();
+    }
+    
+    /**
+     * Ponder thread: with PONDER_ALL, searches the opponent's position; otherwise
+     * takes the reply from the last search's expected line (or predicts it with a
+     * shallow search) and searches or solves the position the program expects to
+     * face until stopPondering is called
+     * @param mine Bitboard of ME pieces
+     * @param theirs Bitboard of OPPONENT pieces
+     * @param discHash Zobrist hash with ME's pieces as owner 0
+     * @param expected Reply from the last search's expected line, or -1
+     */
+    private void ponder(long mine, long theirs, long discHash, int expected) {
+        if(ponderMode == PONDER_ALL) {
+            search.ponder(theirs, mine, discHash ^ Zobrist.SIDE, 1, 64);
+            return;
+        }
+        
+        int reply = expected;
+        if(reply < 0 || reply == Search.PASS || (BitBoard.legalMoves(theirs, mine) & (1L << reply)) == 0)
+            reply = search.ponder(theirs, mine, discHash ^ Zobrist.SIDE, 1, PREDICT_DEPTH);
+        if(!pondering || reply == Search.PASS)
+            return;
+        predictedReply = reply;
+        long flipped = BitBoard.flips(theirs, mine, reply);
+        theirs |= flipped | (1L << reply);
+        mine &= ~flipped;
+        if(BitBoard.legalMoves(mine, theirs) == 0)
+            return;
+        
+        if(64 - BitBoard.count(mine | theirs) <= endgameEmpties) {
+            ponderSolved = true;
+            solver.solve(mine, theirs, PONDER_TIME);
+        }
+        else {
+            search.ponder(mine, theirs, Zobrist.hash(mine, theirs), 0, 64);
+        }
+    }
+    
+    /**
+     * Stops the ponder thread, waits for it and reports what it did
+     * @param index Mailbox index of the move the opponent actually played, Protocol.PASS or Protocol.END
+     */
+    private void stopPondering(int index) {
+        if(ponderThread == null)
+            return;
+        
+        pondering = false;
+        while(ponderThread.isAlive()) { //repeated, as a search that had not started yet would miss the request
+            search.stop();
+            if(solver != null)
+                solver.stop();
+            try {
+                ponderThread.join(1);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        ponderThread = null;
+        
+        if(ponderMode == PONDER_ALL) {
+            System.out.println("C Pondered every reply: depth " + search.getDepth() + ", " + search.getNodes() + " nodes");
+        }
+        else if(predictedReply >= 0) {
+            String square = BatchAnalysis.squareName(predictedReply);
+            String work = ponderSolved ? "endgame solve, " + solver.getNodes() + " nodes"
+                                       : "depth " + search.getDepth() + ", " + search.getNodes() + " nodes";
+            if(index == BitBoard.toIndex(predictedReply))
+                System.out.println("C Ponder hit on " + square + ": " + work);
+            else
+                System.out.println("C Ponder miss: expected " + square);
+        }
+    }
+    
+    /**
+     * Returns the board's search, creating it on first use
+     * @return Search shared by every call to getMyMove
+     */
+    private ParallelSearch getSearch() {
+        if(search == null)
+            search = new ParallelSearch(searchThreads, new TranspositionTable(hashSizeMB));
+        return search;
+    }
+    
+    /**
+     * Returns the board's Monte Carlo search, creating it on first use
+     * @return Search shared by every call to getMyMove
+     */
+    private MonteCarloSearch getMonteCarlo() {
+        if(monteCarlo == null)
+            monteCarlo = new MonteCarloSearch(searchThreads, mctsNodes);
+        return monteCarlo;
     }
     
     /**
@@ -112,6 +555,27 @@ public class Board {
      * @return A list of valid moves; an empty list if no valid moves are available
      */
     public ArrayList<Move> generateMoves(Player player) {
+        if(!useBitboards)
+            return generateMailboxMoves(player);
+        
+        ArrayList<Move> moveList = new ArrayList<Move>();
+        long moves = legalMoves(player.getNumber());
+        
+        while(moves != 0) {
+            int bit = Long.numberOfTrailingZeros(moves);
+            moveList.add(new Move(player.getColor(), BitBoard.toIndex(bit)));
+            moves &= moves - 1;
+        }
+        
+        return moveList;
+    }
+    
+    /**
+     * Generates all possible moves the player can make by walking the mailbox board
+     * @param player Determines which player perspective is being taken into consideration
+     * @return A list of valid moves; an empty list if no valid moves are available
+     */
+    public ArrayList<Move> generateMailboxMoves(Player player) {
         ArrayList<Move> moveList = new ArrayList<Move>();
         boolean duplicate = false; //keeps track of duplicate moves to prevent redundancy
         
@@ -141,12 +605,34 @@ public class Board {
      * @param move Move being applied to the board
      */
     public void applyMove(int currentPlayer, Move move) {
-        int index = move.getIndex();
-        
+        applyMove(currentPlayer, move.getIndex());
+    }
+    
+    /**
+     * Updates the board to reflect the move of the player
+     * @param currentPlayer Player that made the move
+     * @param index Mailbox index of the move; negative for a pass
+     */
+    public void applyMove(int currentPlayer, int index) {
         if(index < 0)
             return;
         
-        board[index] = currentPlayer;
+        if(useBitboards) {
+            long flipped;
+            if(currentPlayer == ME)
+                flipped = BitBoard.flips(myDiscs, oppDiscs, BitBoard.toBit(index));
+            else
+                flipped = BitBoard.flips(oppDiscs, myDiscs, BitBoard.toBit(index));
+            
+            setSquare(index, currentPlayer);
+            while(flipped != 0) {
+                setSquare(BitBoard.toIndex(Long.numberOfTrailingZeros(flipped)), currentPlayer);
+                flipped &= flipped - 1;
+            }
+            return;
+        }
+        
+        setSquare(index, currentPlayer);
         for(int i = 0; i < directions.length; i ++) {
             if(checkDirection(currentPlayer, index, directions[i], false)) {
                 flipPieces(currentPlayer, index, directions[i]);
@@ -157,19 +643,19 @@ public class Board {
     
     /**
      * Evaluates the "goodness" of the board based on personal disc count, total 
-     * legal moves that can be made (mobility), and number of corner pieces
+     * legal moves that can be made (mobility), number of stable pieces and number of corner pieces
      * @return Calculated value of the board
      */
     public double evaluate() {
-        ArrayList<Move> myMoves = generateMoves(me);
-        ArrayList<Move> oppMoves = generateMoves(opponent);
-        double netMoves = myMoves.size() + oppMoves.size();
+        int myMoves = countMoves(me);
+        int oppMoves = countMoves(opponent);
+        double netMoves = myMoves + oppMoves;
         
         double myPieces = totalPieces(ME);
         double oppPieces = totalPieces(OPPONENT);
         double netPieces = myPieces + oppPieces;
         
-        if(myMoves.isEmpty() && oppMoves.isEmpty()) {
+        if(myMoves == 0 && oppMoves == 0) {
             if(myPieces > oppPieces)
                 return 750;
             else
@@ -177,14 +663,16 @@ public class Board {
         }
         
         double discCount = myPieces * 1; //total personal pieces on the board; least amount of weight
-        double totalLegal = myMoves.size() * 100; //total legal moves available; medium amount of weight
+        double totalLegal = myMoves * 100; //total legal moves available; medium amount of weight
+        double totalStable = totalStable(ME) * 200; //pieces that can never be flipped; more weight than mobility
         double totalCorner = cornerPieces(this, me) * 1000; //total corner pieces; most amount of weight
         
-        return discCount + totalLegal + totalCorner;
+        return discCount + totalLegal + totalStable + totalCorner;
     }
     
     /**
-     * A search algorithm that produces and evaluates a game tree using a minmax algorithm
+     * A search algorithm that produces and evaluates a game tree using a negamax
+     * form of minmax; every value is from the perspective of the player to move
      * @param currentBoard Current board being analyzed
      * @param ply The current "turn" or level of the game/game tree
      * @param player The player's perspective that the board is based on
@@ -196,25 +684,31 @@ public class Board {
     public Move alphaBeta(Board currentBoard, int ply, Player player, 
                           double alpha, double beta, int maxDepth) {
         if(ply >= maxDepth) {
-            Move returnMove = new Move(me.getColor());
-            returnMove.setValue(currentBoard.evaluate());
+            Move returnMove = new Move(player.getColor());
+            double value = currentBoard.evaluate(); //evaluate() scores the board for me
+            returnMove.setValue((player == me) ? value : -value);
             return returnMove;
         }
         else {
+            Player next = (player == me) ? opponent : me;
             ArrayList<Move> moves = currentBoard.generateMoves(player) ;
             if(moves.isEmpty())
-                moves.add(new Move(me.getColor()));
+                moves.add(new Move(player.getColor()));
             Move bestMove = moves.get(0);
+            double bestValue = Double.NEGATIVE_INFINITY;
             for(Move move : moves) {
                 Board newBoard = new Board(currentBoard, me, opponent);
                 newBoard.applyMove(player.getNumber(), move);
-                Move tempMove = alphaBeta(newBoard, ply+1, opponent, 
+                Move tempMove = alphaBeta(newBoard, ply+1, next, 
                                           -beta, -alpha, maxDepth);
                 move.setValue(-tempMove.getValue());
-                if(move.getValue() > alpha) {
+                if(move.getValue() > bestValue) {
                     bestMove = move;
+                    bestValue = move.getValue();
+                }
+                if(move.getValue() > alpha) {
                     alpha = move.getValue();
-                    if(alpha > beta)
+                    if(alpha >= beta)
                         return bestMove;
                 }
             }
@@ -227,23 +721,50 @@ public class Board {
      * @return Playability status of the game
      */
     public boolean gameOver() {
-        return (generateMoves(me).isEmpty() && generateMoves(opponent).isEmpty());
+        return (countMoves(me) == 0 && countMoves(opponent) == 0);
+    }
+    
+    /**
+     * Counts the legal moves available to the player (mobility)
+     * @param player Determines which player perspective is being taken into consideration
+     * @return Number of legal moves
+     */
+    public int countMoves(Player player) {
+        if(useBitboards)
+            return BitBoard.count(legalMoves(player.getNumber()));
+        
+        int total = 0;
+        for(int i = 0; i < emptyCount; i++) { //only the empty squares can be moves
+            int index = emptySquares[i];
+            for(int j = 0; j < directions.length; j++) {
+                if(checkDirection(player.getNumber(), index, directions[j], false)) {
+                    total++;
+                    break;
+                }
+            }
+        }
+        return total;
     }
     
     /**
-     * Reads and returns opponent's proposed move
-     * @return Opponent's move
+     * Reads the opponent's move from the referee, pondering while it waits;
+     * lines that are not moves are reported and the next line is read instead
+     * @param io Connection to the referee
+     * @return Mailbox index of the opponent's move, Protocol.PASS (a colour alone), or Protocol.END if the input was closed
+     * @throws IOException If the connection fails
      */
-    public Move getOpponent() {
-        Scanner reader = new Scanner(System.in);
+    public int getOpponent(Protocol io) throws IOException {
         System.out.println("C Waiting for opponent's move... ");
-        String oppInput = reader.nextLine();
-        Move move = new Move(oppInput);
+        startPondering();
+        int index;
+        while((index = io.readMove()) == Protocol.UNREADABLE)
+            System.out.println("C Could not read the opponent's move, waiting for another line: " + io.lineText());
+        stopPondering(index);
         
-        if(!checkLegal(-1, move.getIndex()))
+        if(!checkLegal(-1, index))
             System.out.println("C Opponent performed an illegal move!\n");
         
-        return move;
+        return index;
     }
     
     /**
@@ -259,6 +780,9 @@ public class Board {
         if(board[index] != EMPTY)
             return false;
         
+        if(useBitboards)
+            return (legalMoves(currentPlayer) & (1L << BitBoard.toBit(index))) != 0;
+        
         for(int i = 0; i < directions.length; i ++) {
             if(checkDirection(currentPlayer, index, directions[i], false)) {
                 return true;
@@ -293,7 +817,7 @@ public class Board {
         index += direction;
         
         while(board[index] != currentPlayer) {
-            board[index] = currentPlayer;
+            setSquare(index, currentPlayer);
             index += direction;
         }
     }
@@ -304,14 +828,25 @@ public class Board {
      * @return Total number of above player's pieces on the board
      */
     public int totalPieces(int player) {
-        int total = 0;
-        
-        for(int i = 11; i < board.length; i++) {
-            if(board[i] == player)
-                total++;
-        }
-        
-        return total;
+        return (player == ME) ? myCount : oppCount;
+    }
+    
+    /**
+     * Returns the number of empty squares on the board
+     * @return Empty square count
+     */
+    public int totalEmpty() {
+        return emptyCount;
+    }
+    
+    /**
+     * Returns one of the empty squares; together with totalEmpty this walks
+     * the empty squares without scanning the board
+     * @param i Number from 0 to totalEmpty() - 1
+     * @return Position of the empty square on the game board
+     */
+    public int emptySquare(int i) {
+        return emptySquares[i];
     }
     
     /**
@@ -320,18 +855,7 @@ public class Board {
      * @return Total number of empty spaces adjacent to above player's pieces on the board
      */
     public int totalAdjacent(int player) {
-        ArrayList adjIndexes = new ArrayList();
-        
-        for(int i = 11; i < board.length; i++) {
-            if(board[i] == player) {
-                for(int j = 0; j < directions.length; j++) {
-                    if(board[i+directions[j]] == EMPTY && !adjIndexes.contains(i+j))
-                        adjIndexes.add(i+j);
-                }
-            }
-        }
-        
-        return adjIndexes.size();
+        return (player == ME) ? myFrontier : oppFrontier;
     }
     
     /**
@@ -340,14 +864,10 @@ public class Board {
      * @return Total number of above player's stable pieces on the board
      */
     public int totalStable(int player) {
-        int total = 0;
-        
-        for(int i = 11; i < board.length; i++) {
-            if(board[i] == player && stable(player, board[i]))
-                total++;
-        }
-        
-        return total;
+        if(player == ME)
+            return Stability.count(myDiscs, oppDiscs);
+        else
+            return Stability.count(oppDiscs, myDiscs);
     }
     
     /**
@@ -357,16 +877,11 @@ public class Board {
      * @return True if the piece is stable; false otherwise
      */
     public boolean stable(int player, int index) {
-        if((index == 11) || (index == 18) || (index == 81) || (index == 88))
-            return true;
+        if(board[index] != player)
+            return false;
         
-        for(int i = 11; i < directions.length; i++) {
-            if(board[index+directions[i]] == EMPTY) {
-                if(checkLegal(-player, board[index+directions[i]]))
-                    return false;
-            }
-        }
-        return true;
+        long stable = (player == ME) ? Stability.stableDiscs(myDiscs, oppDiscs) : Stability.stableDiscs(oppDiscs, myDiscs);
+        return (stable & (1L << BitBoard.toBit(index))) != 0;
     }
     
     /**
@@ -376,15 +891,7 @@ public class Board {
      * @return Total number of corner pieces captured by player
      */
     public int cornerPieces(Board currentBoard, Player player) {
-        int total = 0;
-        
-        for(int i = 0; i < currentBoard.board.length; i++) {
-            if(i == 11 || i == 18 || i == 81 || i == 88)
-                if(currentBoard.board[i] == player.getNumber())
-                    total++;
-        }
-        
-        return total;
+        return (player.getNumber() == ME) ? currentBoard.myCorners : currentBoard.oppCorners;
     }
     
     /**
@@ -392,12 +899,15 @@ public class Board {
      * @param player Determines which player perspective is being taken into consideration
      */
     public void printMoves(Player player) {
-        ArrayList<Move> moveList = generateMoves(player);
+        long moves = legalMoves(player.getNumber());
+        StringBuilder text = new StringBuilder("C Possible Moves");
         
-        System.out.println("C Possible Moves");
-        for(int i = 0; i < moveList.size(); i++) {
-            System.out.println("C " + moveList.get(i));
+        while(moves != 0) {
+            int index = BitBoard.toIndex(Long.numberOfTrailingZeros(moves));
+            text.append("\nC ").append(player.getColor()).append(' ').append(colLabels[index % 10 + 1]).append(' ').append(index / 10);
+            moves &= moves - 1;
         }
+        System.out.println(text);
     }
 
     /**
@@ -405,33 +915,33 @@ public class Board {
      * @return String representation of the current game board
      */
     public String toString() {
-        String boardPrint = "C Current Board\nC ";
+        StringBuilder boardPrint = new StringBuilder(256);
+        boardPrint.append("C Current Board\nC ");
         
         for(int i = 0; i < colLabels.length; i++)
-            boardPrint += colLabels[i] + " ";
+            boardPrint.append(colLabels[i]).append(' ');
         
         int rowIndex = 0;
         for(int i = 0; i < board.length; i++) {
             if(i%10 == 0) {
-                boardPrint += "\n";
-                boardPrint += "C " + rowLabels[rowIndex] + " ";
+                boardPrint.append("\nC ").append(rowLabels[rowIndex]).append(' ');
                 rowIndex++;
             }
             
             if(board[i] == BORDER) {
-                boardPrint += "X ";
+                boardPrint.append("X ");
             }
             else if(board[i] == ME) {
-                boardPrint += Character.toString(me.getColor()) + " ";
+                boardPrint.append(me.getColor()).append(' ');
             }
             else if(board[i] == OPPONENT) {
-                boardPrint += Character.toString(opponent.getColor()) + " ";
+                boardPrint.append(opponent.getColor()).append(' ');
             }
             else {
-                boardPrint += "- ";
+                boardPrint.append("- ");
             }
         }
         
-        return boardPrint;
+        return boardPrint.toString();
     }
 }
@@ -0,0 +1,354 @@
+/**
+ * @author Kenny Tram
+ * Perfect-play endgame solver; scores are final disc margins rather than evaluate() values
+ */
+package KKT_Othello;
+
+public class EndgameSolver {
+    public static final int FASTEST_FIRST_EMPTIES = 7; //above this, moves leaving the opponent fewest replies go first
+    public static final int TABLE_EMPTIES = 9; //above this, results are kept in the transposition table
+    public static final int UNKNOWN = Integer.MIN_VALUE; //score reported when the solve ran out of time
+    public static boolean useStability = true; //false turns off the stable-disc cutoffs
+
+    /**
+     * The four 4x4 quadrants; an odd number of empties in a quadrant means the
+     * side that moves there first is likely to also get the last move there
+     */
+    private static final long QUADRANTS[] = {0x000000000f0f0f0fL, 0x00000000f0f0f0f0L,
+                                             0x0f0f0f0f00000000L, 0xf0f0f0f000000000L};
+
+    private TranspositionTable table;
+    private long nodes;
+    private long deadline;
+    private boolean stopped;
+    private volatile boolean stopRequested; //set by another thread to end the solve early
+    private int score = UNKNOWN; //exact margin found by the last solve
+    private int result = UNKNOWN; //1 win, 0 draw, -1 loss for the last solve
+
+    private int[][] moveLists = new int[64][32]; //per-empties move buffers for ordering
+    private int[][] moveKeys = new int[64][32];
+
+    /**
+     * Creates a solver with its own transposition table
+     * @param sizeMB Transposition table size in megabytes
+     */
+    public EndgameSolver(int sizeMB) {
+        table = new TranspositionTable(sizeMB);
+    }
+
+    /**
+     * Solves a position: first a win/loss/draw null-window search, then an exact
+     * search for the margin inside the window the first pass proved
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @param timeLimit Nanoseconds available for the solve
+     * @return Best square to play, Search.PASS if no move is available, or -1 if time ran out
+     */
+    public int solve(long player, long opponent, long timeLimit) {
+        nodes = 0;
+        stopped = false;
+        stopRequested = false;
+        score = UNKNOWN;
+        result = UNKNOWN;
+        deadline = System.nanoTime() + timeLimit;
+
+        if(BitBoard.legalMoves(player, opponent) == 0)
+            return Search.PASS;
+
+        long wld = solveRoot(player, opponent, -1, 1);
+        if(stopped)
+            return -1;
+        int wldScore = (int)(wld >> 8);
+        result = Integer.signum(wldScore);
+
+        long exact = wld;
+        if(wldScore > 0)
+            exact = solveRoot(player, opponent, 0, 64);
+        else if(wldScore < 0)
+            exact = solveRoot(player, opponent, -64, 0);
+        if(stopped) //the win/loss/draw move is still perfect play, only the margin is unknown
+            return (int)(wld & 0xff);
+
+        score = (int)(exact >> 8);
+        return (int)(exact & 0xff);
+    }
+
+    /**
+     * Searches every root move
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @param alpha Lower bound for the side to move
+     * @param beta Upper bound for the side to move
+     * @return Best score in the high bits, best move in the low 8 bits
+     */
+    private long solveRoot(long player, long opponent, int alpha, int beta) {
+        int empties = 64 - BitBoard.count(player | opponent);
+        int count = orderMoves(player, opponent, BitBoard.legalMoves(player, opponent), empties);
+        int[] moves = moveLists[empties];
+        int bestMove = moves[0];
+        int best = -65;
+
+        for(int i = 0; i < count; i++) {
+            int move = moves[i];
+            long flipped = BitBoard.flips(player, opponent, move);
+            int value = -solve(opponent & ~flipped, player | flipped | (1L << move),
+                               -beta, -Math.max(alpha, best), empties - 1, false);
+            if(stopped)
+                break;
+            if(value > best) {
+                best = value;
+                bestMove = move;
+                if(best >= beta)
+                    break;
+            }
+        }
+
+        return ((long)best << 8) | bestMove;
+    }
+
+    /**
+     * Negamax search to the end of the game
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @param alpha Lower bound for the side to move
+     * @param beta Upper bound for the side to move
+     * @param empties Number of empty squares
+     * @param passed True if the previous move was a pass
+     * @return Final disc margin from the side to move's perspective (fail-soft)
+     */
+    private int solve(long player, long opponent, int alpha, int beta, int empties, boolean passed) {
+        if(empties <= 4)
+            return solveLast(player, opponent, alpha, beta, empties, passed);
+
+        nodes++;
+        if((nodes & 4095) == 0 && (stopRequested || System.nanoTime() > deadline))
+            stopped = true;
+        if(stopped)
+            return 0;
+
+        long moves = BitBoard.legalMoves(player, opponent);
+        if(moves == 0) {
+            if(passed)
+                return BitBoard.count(player) - BitBoard.count(opponent);
+            return -solve(opponent, player, -beta, -alpha, empties, true);
+        }
+
+        //stable discs keep their colour to the end, which bounds the final margin
+        if(useStability && 64 - 2 * BitBoard.count(opponent) <= alpha) {
+            int upper = 64 - 2 * Stability.count(opponent, player);
+            if(upper <= alpha)
+                return upper;
+        }
+        if(useStability && 2 * BitBoard.count(player) - 64 >= beta) {
+            int lower = 2 * Stability.count(player, opponent) - 64;
+            if(lower >= beta)
+                return lower;
+        }
+
+        long key = 0;
+        int alphaOriginal = alpha;
+        int hashMove = TranspositionTable.NO_MOVE;
+        if(empties > TABLE_EMPTIES) {
+            key = Zobrist.hash(player, opponent);
+            long entry = table.probe(key);
+            if(entry != TranspositionTable.MISS) {
+                int stored = TranspositionTable.scoreOf(entry);
+                int bound = TranspositionTable.boundOf(entry);
+                if(bound == TranspositionTable.EXACT
+                   || (bound == TranspositionTable.LOWER && stored >= beta)
+                   || (bound == TranspositionTable.UPPER && stored <= alpha))
+                    return stored;
+                hashMove = TranspositionTable.moveOf(entry);
+            }
+        }
+
+        int count = orderMoves(player, opponent, moves, empties);
+        int[] list = moveLists[empties];
+        for(int i = 1; i < count; i++) { //hash move first
+            if(list[i] == hashMove) {
+                list[i] = list[0];
+                list[0] = hashMove;
+                break;
+            }
+        }
+
+        int best = -65;
+        int bestMove = list[0];
+        for(int i = 0; i < count; i++) {
+            int move = list[i];
+            long flipped = BitBoard.flips(player, opponent, move);
+            int value = -solve(opponent & ~flipped, player | flipped | (1L << move),
+                               -beta, -alpha, empties - 1, false);
+            if(value > best) {
+                best = value;
+                bestMove = move;
+                if(value > alpha) {
+                    alpha = value;
+                    if(alpha >= beta)
+                        break;
+                }
+            }
+        }
+
+        if(empties > TABLE_EMPTIES && !stopped) {
+            int bound;
+            if(best <= alphaOriginal)
+                bound = TranspositionTable.UPPER;
+            else if(best >= beta)
+                bound = TranspositionTable.LOWER;
+            else
+                bound = TranspositionTable.EXACT;
+            table.store(key, empties, bound, best, bestMove);
+        }
+
+        return best;
+    }
+
+    /**
+     * Specialized search for the last four empties; tries each empty square
+     * directly (odd quadrants first) instead of generating a move list
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @param alpha Lower bound for the side to move
+     * @param beta Upper bound for the side to move
+     * @param empties Number of empty squares (1 - 4)
+     * @param passed True if the previous move was a pass
+     * @return Final disc margin from the side to move's perspective
+     */
+    private int solveLast(long player, long opponent, int alpha, int beta, int empties, boolean passed) {
+        nodes++;
+        if(empties == 1)
+            return solveOne(player, opponent);
+
+        long empty = ~(player | opponent);
+        long odd = 0;
+        for(long quadrant : QUADRANTS) {
+            if((BitBoard.count(empty & quadrant) & 1) != 0)
+                odd |= quadrant;
+        }
+
+        int best = -65;
+        for(int pass = 0; pass < 2; pass++) {
+            long squares = empty & ((pass == 0) ? odd : ~odd);
+            while(squares != 0) {
+                int move = Long.numberOfTrailingZeros(squares);
+                squares &= squares - 1;
+                long flipped = BitBoard.flips(player, opponent, move);
+                if(flipped == 0)
+                    continue;
+                int value = -solveLast(opponent & ~flipped, player | flipped | (1L << move),
+                                       -beta, -alpha, empties - 1, false);
+                if(value > best) {
+                    best = value;
+                    if(value > alpha) {
+                        alpha = value;
+                        if(alpha >= beta)
+                            return best;
+                    }
+                }
+            }
+        }
+
+        if(best == -65) { //no legal move
+            if(passed)
+                return BitBoard.count(player) - BitBoard.count(opponent);
+            return -solveLast(opponent, player, -beta, -alpha, empties, true);
+        }
+        return best;
+    }
+
+    /**
+     * Scores the last empty square without any search
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return Final disc margin from the side to move's perspective
+     */
+    private int solveOne(long player, long opponent) {
+        int margin = BitBoard.count(player) - BitBoard.count(opponent);
+        int square = Long.numberOfTrailingZeros(~(player | opponent));
+
+        int flipped = BitBoard.count(BitBoard.flips(player, opponent, square));
+        if(flipped > 0)
+            return margin + 2*flipped + 1;
+
+        flipped = BitBoard.count(BitBoard.flips(opponent, player, square));
+        if(flipped > 0)
+            return margin - 2*flipped - 1;
+
+        return margin;
+    }
+
+    /**
+     * Writes the moves into moveLists[empties], best candidates first; fastest-first
+     * (fewest opponent replies) when many empties remain, otherwise odd quadrants first
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @param moves Bitboard of legal moves
+     * @param empties Number of empty squares
+     * @return Number of moves
+     */
+    private int orderMoves(long player, long opponent, long moves, int empties) {
+        int[] list = moveLists[empties];
+        int[] keys = moveKeys[empties];
+        long empty = ~(player | opponent);
+        int count = 0;
+
+        while(moves != 0) {
+            int move = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+
+            int key = 0;
+            for(long quadrant : QUADRANTS) {
+                if((quadrant & (1L << move)) != 0 && (BitBoard.count(empty & quadrant) & 1) != 0)
+                    key -= 1; //odd quadrant
+            }
+            if(empties > FASTEST_FIRST_EMPTIES) {
+                long flipped = BitBoard.flips(player, opponent, move);
+                long replies = BitBoard.legalMoves(opponent & ~flipped, player | flipped | (1L << move));
+                key += BitBoard.count(replies) * 4;
+            }
+
+            int i = count++; //insertion sort, lowest key first
+            while(i > 0 && keys[i - 1] > key) {
+                list[i] = list[i - 1];
+                keys[i] = keys[i - 1];
+                i--;
+            }
+            list[i] = move;
+            keys[i] = key;
+        }
+
+        return count;
+    }
+
+    /**
+     * Asks a solve running on another thread to stop; it returns -1 as if out of time
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Returns the exact margin found by the last solve
+     * @return Final disc margin for the side to move, or UNKNOWN
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Returns the game result found by the last solve
+     * @return 1 for a win, 0 for a draw, -1 for a loss, or UNKNOWN
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the positions visited by the last solve
+     * @return Node count
+     */
+    public long getNodes() {
+        return nodes;
+    }
+}
@@ -3,73 +3,74 @@
  * Pieces of code are modifications of Marietta Cameron's code
  */
 package KKT_Othello;
-import java.util.Scanner;
-
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 
 public class Game {
     public static final int ME = 1;
     public static final int OPPONENT = -1;
     public static final int EMPTY = 0;
     public static final int BORDER = -2;
+    public static final long GAME_TIME = 10 * 60 * 1000000000L; //nanoseconds for all of the program's moves
+    public static long gameTime = GAME_TIME; //clock used by the next game
+    public static boolean quiet = false; //true suppresses the "C" comment lines
     
     private Board gameBoard;
     private int currentPlayer;
     private Player me;
     private Player opponent;
-    private Scanner input = new Scanner(System.in);
-    private int moveNum;
-    
-    static double timeAllocation[] = {0.015, 0.015, 0.015, 0.015, 0.025, 0.025, 0.025, 0.025, 0.025, 0.025,
-                                      0.048,  0.048, 0.048, 0.048, 0.048, 0.048, 0.050, 0.051, 0.052, 0.053,
-                                      0.044,  0.045, 0.049, 0.049, 0.049, 0.051, 0.053, 0.055, 0.057, 0.059,
-                                      0.060, 0.060, 0.061, 0.062, 0.063, 0.064, 0.065, 0.065, 0.065, 0.065,
-                                      0.167, 0.168, 0.169, 0.169, 0.171, 0.172, 0.173, 0.175, 0.180, 0.180,
-                                      0.181, 0.187, 0.196, 0.199, 0.220, 0.220, 0.220, 0.220, 0.220, 0.220,
-                                      0.220, 0.250, 0.250, 0.250, 0.250, 0.250, 0.250, 0.250, 0.250, 0.250
-                                     };
-
-    public int timeRemaining; //keeps track of the remaining time
-    Timer timer;
-    public static boolean timeUP;  //tells if time is up
+    private Protocol io;
+    private TimeManager clock = new TimeManager(gameTime);
     
     /**
      * Initializes and runs an Othello game
+     * @param protocol Connection to the referee
+     * @throws IOException If the connection fails
      */
-    public Game() {
+    public Game(Protocol protocol) throws IOException {
+        io = protocol;
         System.out.println("C Initializing Board");
         assignColors();
         gameBoard = new Board(me, opponent);        
-        timeRemaining = 10 * 60;
         if(me.getColor() == 'B')
             currentPlayer = ME;
         else
             currentPlayer = OPPONENT;
                 
         while (!gameBoard.gameOver()) {
-            Move move;
+            int index;
             if(currentPlayer == ME) {
-                System.out.println(gameBoard);
-                gameBoard.printMoves(me);
-                move = getMyMove(gameBoard);
-                System.out.println(move);
+                if(!quiet) {
+                    System.out.println(gameBoard);
+                    gameBoard.printMoves(me);
+                }
+                index = getMyMove(gameBoard).getIndex();
+                io.writeMove(me.getColor(), index);
             }
             else {
                 //gameBoard.printMoves(opponent);
-                move = gameBoard.getOpponent();
+                index = gameBoard.getOpponent(io);
+                if(index == Protocol.END) {
+                    System.out.println("C Referee closed the connection");
+                    break;
+                }
             }
-            gameBoard.applyMove(currentPlayer, move);
+            gameBoard.applyMove(currentPlayer, index);
             
             currentPlayer = -1*currentPlayer;  //switches players
         }
+        io.report();
     }
     
     /**
      * Assigns each player's respective colors based on a given input
+     * @throws IOException If the connection fails
      */
-    public void assignColors() {
-       String directions = input.nextLine();
+    public void assignColors() throws IOException {
+       io.readLine();
+       String directions = io.lineText();
        if(directions.equals("I B")) {
            me = new Player('B', 1);
            opponent = new Player('W', -1);
@@ -79,54 +80,116 @@ public class Game {
            opponent = new Player('B', -1);
        }
        
-       System.out.println("R " + me.getColor());
+       io.writeLine("R " + me.getColor());
     }
     
     /**
-     * Calculates and returns the inferred best move
+     * Calculates and returns the inferred best move, charging the time it really took to the clock
      * @param board Representation of the current board
      * @return Inferred best move
      */
     public Move getMyMove(Board board){
-        moveNum++;
-        Move move;
-        
-        timeUP = false;
-        timer = new Timer();
-        
-        int timeForMove = (int)(timeAllocation[moveNum]*(double)timeRemaining); 
-        
-        System.out.println("C Move Time:  " + timeForMove);
-        timer.schedule(new InterruptTask(), timeForMove*1000);
-        
-        move = board.getMyMove();
-        //move = board.bestMove(me);
+        clock.startMove();
         
-        if (!timeUP)
-          timer.cancel();
-        timeRemaining -= timeForMove;
+        Move move = board.getMyMove(clock);
         
-        System.out.println("C Remaining Time: " + timeRemaining);
+        long used = clock.endMove();
+        System.out.printf("C Move Time: %.3f s%n", used / 1e9);
+        System.out.printf("C Remaining Time: %.3f s (banked %.3f s)%n", clock.getRemaining() / 1e9, clock.getBanked() / 1e9);
         
         return move;
     }
     
-    /**
-     * Interrupts the current task if no time remains
-     */
-    class InterruptTask extends TimerTask {
-        public void run() {
-            System.out.println("C ***NO TIME REMAINING***");
-            timeUP = true;
-            timer.cancel();
-        }
-    }
-    
     /**
      * Main method; runs the Othello game
+     * @param args Optional "-hash MB" to size the transposition table, "-threads N" to set the
+     *             search threads, "-weights file" to load tuned evaluation weights and
+     *             "-book file" to play from an opening book, "-log file" to append
+     *             search statistics to a JSON-lines log, "-ponder predicted|all|off"
+     *             to search while the opponent thinks, "-probcut file" to load Multi-ProbCut
+     *             parameters, "-selectivity levels" to set its level (one, or one per stage),
+     *             "-engine mcts|alphabeta" to choose the midgame search, "-connect address"
+     *             to reach the referee other than on standard input and output (see Protocol),
+     *             "-time seconds" to set the game clock and "-quiet" to leave out the comment lines
      */
-    public static void main(String [] args) {
-        Game othelloMatch = new Game();
+    public static void main(String [] args) throws IOException {
+        String weightsFile = PatternEval.WEIGHTS_FILE;
+        String bookFile = OpeningBook.BOOK_FILE;
+        String probCutFile = ProbCut.PARAMETERS_FILE;
+        String address = "stdio";
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-quiet")) {
+                quiet = true;
+                System.setOut(new PrintStream(OutputStream.nullOutputStream())); //moves go through the protocol, not System.out
+            }
+        }
+        for(int i = 0; i + 1 < args.length; i++) {
+            if(args[i].equals("-hash"))
+                Board.hashSizeMB = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-threads"))
+                Board.searchThreads = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-weights"))
+                weightsFile = args[i+1];
+            else if(args[i].equals("-book"))
+                bookFile = args[i+1];
+            else if(args[i].equals("-probcut"))
+                probCutFile = args[i+1];
+            else if(args[i].equals("-selectivity"))
+                ProbCut.setSelectivity(args[i+1]);
+            else if(args[i].equals("-connect"))
+                address = args[i+1];
+            else if(args[i].equals("-time"))
+                gameTime = (long)(Double.parseDouble(args[i+1]) * 1e9);
+            else if(args[i].equals("-engine"))
+                Board.engine = args[i+1].equals("mcts") ? Board.ENGINE_MCTS : Board.ENGINE_ALPHABETA;
+            else if(args[i].equals("-ponder")) {
+                if(args[i+1].equals("all"))
+                    Board.ponderMode = Board.PONDER_ALL;
+                else if(args[i+1].equals("off"))
+                    Board.ponderMode = Board.PONDER_OFF;
+                else
+                    Board.ponderMode = Board.PONDER_PREDICTED;
+            }
+            else if(args[i].equals("-log")) {
+                try {
+                    SearchStats.openLog(args[i+1]);
+                }
+                catch(IOException e) {
+                    System.out.println("C Could not open " + args[i+1] + ": " + e.getMessage());
+                }
+            }
+        }
+        if(new File(weightsFile).exists()) {
+            try {
+                PatternEval.loadWeights(weightsFile);
+                Search.usePatterns = true;
+                System.out.println("C Loaded evaluation weights from " + weightsFile);
+            }
+            catch(IOException e) {
+                System.out.println("C Could not load " + weightsFile + ": " + e.getMessage());
+            }
+        }
+        if(new File(bookFile).exists()) {
+            try {
+                Board.book = new OpeningBook(bookFile);
+                System.out.println("C Loaded opening book from " + bookFile + " (" + Board.book.size() + " moves)");
+            }
+            catch(IOException e) {
+                System.out.println("C Could not load " + bookFile + ": " + e.getMessage());
+            }
+        }
+        if(new File(probCutFile).exists()) {
+            try {
+                int loaded = ProbCut.load(probCutFile);
+                System.out.println("C Loaded ProbCut parameters for " + loaded + " depths from " + probCutFile);
+            }
+            catch(IOException e) {
+                System.out.println("C Could not load " + probCutFile + ": " + e.getMessage());
+            }
+        }
+        Protocol protocol = Protocol.connect(address);
+        Game othelloMatch = new Game(protocol);
+        protocol.close();
     }
 }
 
@@ -0,0 +1,488 @@
+/**
+ * @author Kenny Tram
+ * Monte Carlo tree search with UCT selection, an alternative to the alpha-beta
+ * search. The tree lives in preallocated primitive arrays indexed by node
+ * number, and every thread grows the same tree: a thread counts its visit on
+ * the way down (a virtual loss until its playout is backed up), so the others
+ * spread out over different lines instead of repeating its playout.
+ */
+package KKT_Othello;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MonteCarloSearch {
+    public static final int DEFAULT_NODES = 1 << 21; //tree capacity, about 30 MB
+    public static final double EXPLORATION = 1.0; //UCT exploration constant
+    public static final int EXPAND_VISITS = 2; //visits a leaf needs before its children are added
+    public static final int CHECK_INTERVAL = 16; //playouts between clock checks
+    public static boolean lightPolicy = true; //false plays uniformly random playouts
+
+    private static final int LEAF = 0; //node states
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+    private static final long CORNERS = 0x8100000000000081L;
+    private static final long X_SQUARES[] = {0x0000000000000200L, 0x0000000000004000L, //b2, g2, b7, g7
+                                             0x0002000000000000L, 0x0040000000000000L};
+    private static final long X_CORNERS[] = {0x0000000000000001L, 0x0000000000000080L, //a1, h1, a8, h8
+                                             0x0100000000000000L, 0x8000000000000000L};
+
+    private final int capacity;
+    private final int[] firstChild; //node number of the first child; children are consecutive
+    private final byte[] childCount;
+    private final byte[] moveInto; //square played to reach the node, or Search.PASS
+    private final AtomicIntegerArray visits; //includes playouts still running (virtual losses)
+    private final AtomicIntegerArray wins; //half points for the side that moved into the node: 2 win, 1 draw
+    private final AtomicIntegerArray state; //LEAF, EXPANDING or EXPANDED; publishes the child fields
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final AtomicLong playouts = new AtomicLong();
+    private final Worker[] workers;
+    private ExecutorService helpers;
+
+    private long rootPlayer;
+    private long rootOpponent;
+    private long deadline;
+    private volatile boolean stopRequested;
+    private long elapsed; //nanoseconds taken by the last search
+
+    /**
+     * Creates a search
+     * @param threads Number of threads, including the caller's
+     * @param nodes Tree capacity in nodes
+     */
+    public MonteCarloSearch(int threads, int nodes) {
+        capacity = nodes;
+        firstChild = new int[nodes];
+        childCount = new byte[nodes];
+        moveInto = new byte[nodes];
+        visits = new AtomicIntegerArray(nodes);
+        wins = new AtomicIntegerArray(nodes);
+        state = new AtomicIntegerArray(nodes);
+
+        workers = new Worker[Math.max(1, threads)];
+        for(int i = 0; i < workers.length; i++)
+            workers[i] = new Worker(0x9e3779b97f4a7c15L * (i + 1));
+        if(workers.length > 1) {
+            helpers = Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+                Thread thread = new Thread(runnable, "mcts-helper");
+                thread.setDaemon(true); //helpers must not keep the program alive after the game
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Grows a new tree from the position until the time is up
+     * @param player Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param timeLimit Nanoseconds available for the move
+     * @return Most visited square, or Search.PASS if no move is available
+     */
+    public int search(long player, long other, long timeLimit) {
+        long start = System.nanoTime();
+        if(BitBoard.legalMoves(player, other) == 0)
+            return Search.PASS;
+
+        rootPlayer = player;
+        rootOpponent = other;
+        deadline = start + timeLimit;
+        stopRequested = false;
+        playouts.set(0);
+        nodeCount.set(1);
+        visits.set(0, 0);
+        wins.set(0, 0);
+        state.set(0, EXPANDING);
+        expand(0, player, other);
+
+        Future<?>[] running = new Future<?>[workers.length];
+        for(int i = 1; i < workers.length; i++)
+            running[i] = helpers.submit(workers[i]);
+        workers[0].run();
+        for(int i = 1; i < workers.length; i++) {
+            try {
+                running[i].get();
+            }
+            catch(Exception e) {
+                System.out.println("C MCTS helper failed: " + e);
+            }
+        }
+        elapsed = System.nanoTime() - start;
+
+        return moveInto[bestChild()];
+    }
+
+    /**
+     * Asks a running search, on another thread, to stop
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Finds the root child played most often
+     * @return Node number
+     */
+    private int bestChild() {
+        int first = firstChild[0];
+        int best = first;
+        for(int child = first + 1; child < first + childCount[0]; child++) {
+            if(visits.get(child) > visits.get(best))
+                best = child;
+        }
+        return best;
+    }
+
+    /**
+     * Adds the children of a node the caller has marked EXPANDING, then publishes them;
+     * a node whose children do not fit is left a leaf for good
+     * @param node Node number
+     * @param player Bitboard of the side to move at the node
+     * @param opponent Bitboard of the other side
+     */
+    private void expand(int node, long player, long opponent) {
+        long moves = BitBoard.legalMoves(player, opponent);
+        int count = BitBoard.count(moves);
+        if(count == 0 && BitBoard.legalMoves(opponent, player) != 0)
+            count = 1; //a pass is the only move
+
+        int first = nodeCount.getAndAdd(count);
+        if(first + count > capacity) { //tree full
+            state.set(node, EXPANDING);
+            return;
+        }
+
+        for(int child = first; child < first + count; child++) {
+            int move = (moves == 0) ? Search.PASS : Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+            moveInto[child] = (byte)move;
+            childCount[child] = 0;
+            visits.set(child, 0);
+            wins.set(child, 0);
+            state.set(child, LEAF);
+        }
+        firstChild[node] = first;
+        childCount[node] = (byte)count;
+        state.set(node, EXPANDED);
+    }
+
+    /**
+     * Plays a move on a pair of bitboards
+     * @param discs Side to move at index 0, the other side at index 1; swapped afterwards
+     * @param move Square, or Search.PASS
+     */
+    private static void play(long[] discs, int move) {
+        long player = discs[0];
+        long opponent = discs[1];
+        if(move != Search.PASS) {
+            long flipped = BitBoard.flips(player, opponent, move);
+            player |= flipped | (1L << move);
+            opponent &= ~flipped;
+        }
+        discs[0] = opponent;
+        discs[1] = player;
+    }
+
+    /**
+     * Returns the playouts of the last search
+     * @return Playout count
+     */
+    public long getPlayouts() {
+        return playouts.get();
+    }
+
+    /**
+     * Calculates the speed of the last search
+     * @return Playouts per second over all threads
+     */
+    public long playoutsPerSecond() {
+        return (long)(playouts.get() / Math.max(elapsed / 1e9, 1e-9));
+    }
+
+    /**
+     * Returns the nodes in the tree of the last search
+     * @return Node count
+     */
+    public int getNodes() {
+        return Math.min(nodeCount.get(), capacity);
+    }
+
+    /**
+     * Returns the share of points won by the best move's playouts
+     * @return Win rate from 0 to 1, draws counting half
+     */
+    public double getWinRate() {
+        int best = bestChild();
+        return wins.get(best) / (2.0 * Math.max(1, visits.get(best)));
+    }
+
+    /**
+     * Returns the number of search threads
+     * @return Thread count
+     */
+    public int getThreads() {
+        return workers.length;
+    }
+
+    /**
+     * Prints the statistics of the last search as a comment line
+     */
+    public void report() {
+        System.out.printf("C MCTS: %d playouts (%d playouts/sec)  %d nodes  win rate %.1f%%  %.3f s  %d threads%n",
+                          getPlayouts(), playoutsPerSecond(), getNodes(), 100 * getWinRate(), elapsed / 1e9, workers.length);
+    }
+
+    /**
+     * Stops the helper threads; the search cannot be used afterwards
+     */
+    public void shutdown() {
+        if(helpers != null)
+            helpers.shutdownNow();
+    }
+
+    /**
+     * One search thread; keeps its own random numbers and path so threads share nothing but the tree
+     */
+    private class Worker implements Runnable {
+        private long random; //xorshift state
+        private final int[] path = new int[Search.MAX_PLY]; //nodes from the root to the current leaf
+        private final long[] discs = new long[2];
+
+        /**
+         * Creates a worker
+         * @param seed Nonzero random seed
+         */
+        Worker(long seed) {
+            random = seed;
+        }
+
+        /**
+         * Runs playouts until the deadline or stop
+         */
+        public void run() {
+            long count = 0;
+            while(!stopRequested) {
+                iterate();
+                if(++count % CHECK_INTERVAL == 0 && System.nanoTime() > deadline)
+                    break;
+            }
+            playouts.addAndGet(count);
+        }
+
+        /**
+         * Walks down the tree by UCT, grows it by one node's children, plays
+         * the game out and backs the result up the path
+         */
+        private void iterate() {
+            discs[0] = rootPlayer;
+            discs[1] = rootOpponent;
+            int node = 0;
+            int length = 0;
+            path[length++] = node;
+            visits.incrementAndGet(node);
+
+            while(true) {
+                int nodeState = state.get(node);
+                if(nodeState == LEAF && visits.get(node) > EXPAND_VISITS && state.compareAndSet(node, LEAF, EXPANDING))
+                    expand(node, discs[0], discs[1]);
+                else if(nodeState != EXPANDED)
+                    break;
+                if(state.get(node) != EXPANDED || childCount[node] == 0)
+                    break;
+
+                node = select(node);
+                visits.incrementAndGet(node); //virtual loss until the result is added
+                play(discs, moveInto[node]);
+                path[length++] = node;
+            }
+
+            int result = playout(discs[0], discs[1]); //for the side to move at the leaf
+            for(int i = length - 1; i >= 0; i--) {
+                result = 2 - result; //the side that moved into path[i]
+                wins.addAndGet(path[i], result);
+            }
+        }
+
+        /**
+         * Picks the child with the highest upper confidence bound
+         * @param node Expanded node
+         * @return Child node number
+         */
+        private int select(int node) {
+            int first = firstChild[node];
+            int count = childCount[node];
+            double logVisits = Math.log(Math.max(1, visits.get(node)));
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+
+            for(int child = first; child < first + count; child++) {
+                int n = visits.get(child);
+                if(n == 0)
+                    return child;
+                double value = wins.get(child) / (2.0 * n) + EXPLORATION * Math.sqrt(logVisits / n);
+                if(value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays random moves to the end of the game
+         * @param player Bitboard of the side to move
+         * @param opponent Bitboard of the other side
+         * @return 2 if the side to move wins, 1 for a draw, 0 for a loss
+         */
+        private int playout(long player, long opponent) {
+            boolean passed = false;
+            boolean flipped = false; //true while the other side is to move
+
+            while(true) {
+                long moves = BitBoard.legalMoves(player, opponent);
+                if(moves == 0) {
+                    if(passed)
+                        break;
+                    passed = true;
+                }
+                else {
+                    passed = false;
+                    int move = choose(moves, player | opponent);
+                    long flips = BitBoard.flips(player, opponent, move);
+                    player |= flips | (1L << move);
+                    opponent &= ~flips;
+                }
+                long temp = player;
+                player = opponent;
+                opponent = temp;
+                flipped = !flipped;
+            }
+
+            int margin = BitBoard.count(player) - BitBoard.count(opponent);
+            if(flipped)
+                margin = -margin;
+            return (margin > 0) ? 2 : (margin == 0) ? 1 : 0;
+        }
+
+        /**
+         * Chooses a playout move: at random, or with the light policy a corner
+         * whenever one is legal and never an X-square next to an empty corner if
+         * anything else is legal
+         * @param moves Bitboard of legal moves
+         * @param occupied Bitboard of all discs
+         * @return Square to play
+         */
+        private int choose(long moves, long occupied) {
+            if(lightPolicy) {
+                if((moves & CORNERS) != 0) {
+                    moves &= CORNERS;
+                }
+                else {
+                    long safe = moves;
+                    for(int i = 0; i < 4; i++) {
+                        if((occupied & X_CORNERS[i]) == 0)
+                            safe &= ~X_SQUARES[i];
+                    }
+                    if(safe != 0)
+                        moves = safe;
+                }
+            }
+
+            int pick = (int)((next() >>> 33) % BitBoard.count(moves));
+            for(int i = 0; i < pick; i++)
+                moves &= moves - 1;
+            return Long.numberOfTrailingZeros(moves);
+        }
+
+        /**
+         * Advances the xorshift generator
+         * @return Next random number
+         */
+        private long next() {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            return random;
+        }
+    }
+
+    /**
+     * Plays MCTS against the alpha-beta search at equal time from every opening
+     * in a suite, each side taking both colours, and reports the score and speeds
+     * @param args [ms per move] [threads] [suite file]
+     * @throws Exception If the suite cannot be read
+     */
+    public static void main(String[] args) throws Exception {
+        long moveTime = ((args.length > 0) ? Long.parseLong(args[0]) : 100) * 1000000L;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ArrayList<Position> suite = Position.load((args.length > 2) ? args[2] : "openings.txt");
+
+        MonteCarloSearch mcts = new MonteCarloSearch(threads, DEFAULT_NODES);
+        ParallelSearch alphaBeta = new ParallelSearch(threads, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+        int wins = 0;
+        int losses = 0;
+        int draws = 0;
+        long playoutRate = 0;
+        long nodeRate = 0;
+        int mctsMoves = 0;
+        int alphaBetaMoves = 0;
+
+        for(Position start : suite) {
+            for(int mctsSide = 0; mctsSide < 2; mctsSide++) {
+                long player = start.player();
+                long opponent = start.opponent();
+                int side = 0;
+                boolean passed = false;
+                alphaBeta.getTable().clear();
+
+                while(true) {
+                    if(BitBoard.legalMoves(player, opponent) == 0) {
+                        if(passed)
+                            break;
+                        passed = true;
+                    }
+                    else {
+                        passed = false;
+                        int move;
+                        if(side == mctsSide) {
+                            move = mcts.search(player, opponent, moveTime);
+                            playoutRate += mcts.playoutsPerSecond();
+                            mctsMoves++;
+                        }
+                        else {
+                            move = alphaBeta.iterativeDeepening(player, opponent, Zobrist.hash(player, opponent), moveTime);
+                            nodeRate += alphaBeta.getStats().nodesPerSecond();
+                            alphaBetaMoves++;
+                        }
+                        long flipped = BitBoard.flips(player, opponent, move);
+                        player |= flipped | (1L << move);
+                        opponent &= ~flipped;
+                    }
+                    long temp = player;
+                    player = opponent;
+                    opponent = temp;
+                    side ^= 1;
+                }
+
+                int margin = BitBoard.count(player) - BitBoard.count(opponent);
+                if(side != mctsSide)
+                    margin = -margin;
+                if(margin > 0)
+                    wins++;
+                else if(margin < 0)
+                    losses++;
+                else
+                    draws++;
+            }
+        }
+        mcts.shutdown();
+        alphaBeta.shutdown();
+
+        System.out.printf("MCTS vs alpha-beta at %d ms/move: +%d -%d =%d%n", moveTime / 1000000, wins, losses, draws);
+        System.out.printf("MCTS %d playouts/sec, alpha-beta %d nodes/sec (%d threads)%n",
+                          playoutRate / Math.max(1, mctsMoves), nodeRate / Math.max(1, alphaBetaMoves), threads);
+    }
+}
@@ -0,0 +1,412 @@
+/**
+ * @author Kenny Tram
+ * Opening book stored as a sorted file of fixed-size records, memory-mapped and
+ * binary-searched in place. Positions are stored once per symmetry class: every
+ * position is reduced to its canonical orientation before it is hashed, so the
+ * 8 rotations and reflections of a line share one set of records.
+ *
+ * File layout: a 16-byte header (MAGIC, VERSION, record count) followed by
+ * RECORD_BYTES records sorted by key, each holding
+ *   long  key    Zobrist hash of the canonical position (side to move is owner 0)
+ *   int   games  Number of games that played the move
+ *   short score  Mean final margin for the side to move, in hundredths of a disc
+ *   byte  move   Square (bit number) of the move in the canonical orientation
+ *   byte  unused
+ */
+package KKT_Othello;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OpeningBook {
+    public static final int MAGIC = 0x4b4b5442; //first int of a book file
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 16;
+    public static final String BOOK_FILE = "book.bin"; //loaded at startup when present
+
+    private final MappedByteBuffer records;
+    private final int size;
+    private int minGames = 2; //moves played in fewer games are not trusted
+
+    /**
+     * Maps a book file into memory; nothing is read until the first lookup
+     * @param fileName Book file
+     * @throws IOException If the file cannot be mapped or is not a book
+     */
+    public OpeningBook(String fileName) throws IOException {
+        try(FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(records.capacity() < HEADER_BYTES || records.getInt(0) != MAGIC || records.getInt(4) != VERSION)
+            throw new IOException("Not an opening book: " + fileName);
+        size = (int)records.getLong(8);
+        if(HEADER_BYTES + (long)size * RECORD_BYTES > records.capacity())
+            throw new IOException("Truncated opening book: " + fileName);
+    }
+
+    /**
+     * Finds the book move for a position
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return Square (bit number) of the highest scoring move played in at least
+     *         minGames games, or -1 if the position is not in the book
+     */
+    public int lookup(long player, long opponent) {
+        int symmetry = BitBoard.canonicalSymmetry(player, opponent);
+        long key = Zobrist.hash(BitBoard.transform(player, symmetry), BitBoard.transform(opponent, symmetry));
+
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        for(int i = find(key); i < size && keyAt(i) == key; i++) {
+            int offset = HEADER_BYTES + i * RECORD_BYTES;
+            if(records.getInt(offset + 8) < minGames)
+                continue;
+            int score = records.getShort(offset + 12);
+            if(score > bestScore) {
+                bestScore = score;
+                best = records.get(offset + 14);
+            }
+        }
+        if(best < 0)
+            return -1;
+
+        return BitBoard.untransformSquare(best, symmetry);
+    }
+
+    /**
+     * Sets how many games a move needs before lookup will play it
+     * @param games Minimum number of games
+     */
+    public void setMinGames(int games) {
+        minGames = games;
+    }
+
+    /**
+     * Returns the number of records (position and move pairs) in the book
+     * @return Record count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Binary searches for the first record with the key
+     * @param key Canonical position hash
+     * @return Index of the first record whose key is not less than the key
+     */
+    private int find(long key) {
+        int low = 0;
+        int high = size;
+
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(keyAt(middle) < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+
+        return low;
+    }
+
+    /**
+     * Reads the key of a record straight from the mapped file
+     * @param i Record index
+     * @return Record key
+     */
+    private long keyAt(int i) {
+        return records.getLong(HEADER_BYTES + i * RECORD_BYTES);
+    }
+
+    /**
+     * Grows a book from self-play games and game transcripts and writes it back sorted
+     * @param args build book [-games N] [-depth D] [-plies P] [-random K] [-seed S] [-transcripts file]
+     * @throws IOException If a file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2 || !args[0].equals("build")) {
+            System.out.println("Usage: OpeningBook build <book> [-games N] [-depth D] [-plies P] [-random K]"
+                               + " [-seed S] [-transcripts file]");
+            return;
+        }
+
+        String bookFile = args[1];
+        int games = 0;
+        int depth = 6;
+        int plies = 20;
+        int randomMoves = 6;
+        long seed = System.nanoTime();
+        String transcripts = null;
+        for(int i = 2; i + 1 < args.length; i += 2) {
+            if(args[i].equals("-games"))
+                games = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-depth"))
+                depth = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-plies"))
+                plies = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-random"))
+                randomMoves = Integer.parseInt(args[i+1]);
+            else if(args[i].equals("-seed"))
+                seed = Long.parseLong(args[i+1]);
+            else if(args[i].equals("-transcripts"))
+                transcripts = args[i+1];
+        }
+
+        Builder builder = new Builder(plies);
+        if(new File(bookFile).exists())
+            builder.addBook(new OpeningBook(bookFile));
+
+        if(transcripts != null) {
+            int added = 0;
+            int rejected = 0;
+            try(BufferedReader reader = new BufferedReader(new FileReader(transcripts))) {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if(line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    if(builder.addTranscript(line))
+                        added++;
+                    else
+                        rejected++;
+                }
+            }
+            System.out.println("Transcripts: " + added + " added, " + rejected + " rejected");
+        }
+
+        Search search = new Search(new TranspositionTable(16));
+        long start = System.nanoTime();
+        for(int game = 0; game < games; game++)
+            builder.addGame(selfPlay(search, new Random(seed + game), depth, randomMoves));
+        if(games > 0)
+            System.out.printf("Self-play: %d games in %.1f s%n", games, (System.nanoTime() - start) / 1e9);
+
+        int written = builder.write(bookFile);
+        System.out.println("Wrote " + written + " records to " + bookFile);
+    }
+
+    /**
+     * Plays one self-play game, random for the first moves and then by a fixed-depth search
+     * @param search Search used for the non-random moves
+     * @param random Source of the opening moves
+     * @param depth Search depth
+     * @param randomMoves Number of random moves at the start of the game
+     * @return Squares played in order; passes are left out
+     */
+    private static int[] selfPlay(Search search, Random random, int depth, int randomMoves) {
+        int[] moves = new int[60];
+        int played = 0;
+        long player = Position.initial().player();
+        long opponent = Position.initial().opponent();
+        boolean passed = false;
+
+        while(true) {
+            long legal = BitBoard.legalMoves(player, opponent);
+            if(legal == 0) {
+                if(passed)
+                    break;
+                passed = true;
+                long temp = player;
+                player = opponent;
+                opponent = temp;
+                continue;
+            }
+            passed = false;
+
+            int move;
+            if(played < randomMoves) {
+                int pick = random.nextInt(BitBoard.count(legal));
+                for(int i = 0; i < pick; i++)
+                    legal &= legal - 1;
+                move = Long.numberOfTrailingZeros(legal);
+            }
+            else {
+                search.setPosition(player, opponent);
+                move = search.bestMove(depth);
+            }
+            moves[played++] = move;
+
+            long flipped = BitBoard.flips(player, opponent, move);
+            long temp = player | flipped | (1L << move);
+            player = opponent & ~flipped;
+            opponent = temp;
+        }
+
+        int[] game = new int[played];
+        System.arraycopy(moves, 0, game, 0, played);
+        return game;
+    }
+
+    /**
+     * Accumulates move statistics by canonical position and writes them as a sorted book
+     */
+    private static class Builder {
+        private final int plies;
+        private final HashMap<Long, HashMap<Integer, long[]>> positions = new HashMap<Long, HashMap<Integer, long[]>>();
+
+        /**
+         * Creates an empty builder
+         * @param bookPlies Only the first plies of each game are added
+         */
+        Builder(int bookPlies) {
+            plies = bookPlies;
+        }
+
+        /**
+         * Adds every record of an existing book, so a rebuilt book keeps what it had
+         * @param book Existing book
+         */
+        void addBook(OpeningBook book) {
+            for(int i = 0; i < book.size; i++) {
+                int offset = HEADER_BYTES + i * RECORD_BYTES;
+                long games = book.records.getInt(offset + 8);
+                long[] stats = statsFor(book.records.getLong(offset), book.records.get(offset + 14));
+                stats[0] += games;
+                stats[1] += games * book.records.getShort(offset + 12);
+            }
+        }
+
+        /**
+         * Adds a game written as squares such as "f5d6c3d3"; standard notation is
+         * accepted in any orientation, since the first symmetry of the board under
+         * which every move is legal is used
+         * @param transcript Moves of the game, without passes
+         * @return True if the game was added
+         */
+        boolean addTranscript(String transcript) {
+            String text = transcript.replaceAll("\\s", "").toLowerCase();
+            int[] moves = new int[text.length() / 2];
+            for(int i = 0; i < moves.length; i++) {
+                int col = text.charAt(2*i) - 'a';
+                int row = text.charAt(2*i + 1) - '1';
+                if(col < 0 || col > 7 || row < 0 || row > 7)
+                    return false;
+                moves[i] = row*8 + col;
+            }
+
+            for(int symmetry = 0; symmetry < 8; symmetry++) {
+                int[] game = new int[moves.length];
+                for(int i = 0; i < moves.length; i++)
+                    game[i] = BitBoard.transformSquare(moves[i], symmetry);
+                if(addGame(game))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Replays a game and adds its opening moves with the final result
+         * @param moves Squares played in order, without passes
+         * @return False (and nothing added) if a move is illegal
+         */
+        boolean addGame(int[] moves) {
+            long[] players = new long[moves.length];
+            long[] opponents = new long[moves.length];
+            boolean[] blackMoved = new boolean[moves.length];
+            long player = Position.initial().player();
+            long opponent = Position.initial().opponent();
+            boolean blackToMove = true;
+
+            for(int i = 0; i < moves.length; i++) {
+                if(BitBoard.legalMoves(player, opponent) == 0) { //pass
+                    long temp = player;
+                    player = opponent;
+                    opponent = temp;
+                    blackToMove = !blackToMove;
+                }
+                if((BitBoard.legalMoves(player, opponent) & (1L << moves[i])) == 0)
+                    return false;
+
+                players[i] = player;
+                opponents[i] = opponent;
+                blackMoved[i] = blackToMove;
+
+                long flipped = BitBoard.flips(player, opponent, moves[i]);
+                long temp = player | flipped | (1L << moves[i]);
+                player = opponent & ~flipped;
+                opponent = temp;
+                blackToMove = !blackToMove;
+            }
+
+            long black = blackToMove ? player : opponent;
+            long white = blackToMove ? opponent : player;
+            int margin = BitBoard.count(black) - BitBoard.count(white);
+
+            for(int i = 0; i < Math.min(plies, moves.length); i++) {
+                int symmetry = BitBoard.canonicalSymmetry(players[i], opponents[i]);
+                long key = Zobrist.hash(BitBoard.transform(players[i], symmetry), BitBoard.transform(opponents[i], symmetry));
+                int move = BitBoard.transformSquare(moves[i], symmetry);
+                long[] stats = statsFor(key, move);
+                stats[0]++;
+                stats[1] += (blackMoved[i] ? margin : -margin) * 100;
+            }
+            return true;
+        }
+
+        /**
+         * Returns the counters for a position and move, creating them if needed
+         * @param key Canonical position hash
+         * @param move Square in the canonical orientation
+         * @return Games played and total margin (hundredths of a disc)
+         */
+        private long[] statsFor(long key, int move) {
+            HashMap<Integer, long[]> moves = positions.get(key);
+            if(moves == null) {
+                moves = new HashMap<Integer, long[]>();
+                positions.put(key, moves);
+            }
+            long[] stats = moves.get(move);
+            if(stats == null) {
+                stats = new long[2];
+                moves.put(move, stats);
+            }
+            return stats;
+        }
+
+        /**
+         * Writes the accumulated records sorted by key
+         * @param fileName Book file
+         * @return Number of records written
+         * @throws IOException If the file cannot be written
+         */
+        int write(String fileName) throws IOException {
+            ArrayList<Long> keys = new ArrayList<Long>(positions.keySet());
+            Collections.sort(keys);
+            int count = 0;
+            for(HashMap<Integer, long[]> moves : positions.values())
+                count += moves.size();
+
+            try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(count);
+                for(long key : keys) {
+                    for(Map.Entry<Integer, long[]> entry : positions.get(key).entrySet()) {
+                        long[] stats = entry.getValue();
+                        output.writeLong(key);
+                        output.writeInt((int)Math.min(stats[0], Integer.MAX_VALUE));
+                        output.writeShort((int)(stats[1] / stats[0]));
+                        output.writeByte(entry.getKey());
+                        output.writeByte(0);
+                    }
+                }
+            }
+
+            return count;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ * @author Kenny Tram
+ * Lazy SMP: several threads search the same position over one shared
+ * transposition table, and the main thread's result is played
+ */
+package KKT_Othello;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ParallelSearch {
+    private static final long NO_DEADLINE = Long.MAX_VALUE / 4; //far enough away that start + limit cannot overflow
+
+    private Search[] searches; //searches[0] runs on the caller's thread, the rest are helpers
+    private ExecutorService helpers;
+    private TranspositionTable table;
+    private long elapsed; //nanoseconds taken by the last search
+    private long budget; //nanoseconds the last search was given
+
+    /**
+     * Creates a parallel search
+     * @param threads Number of search threads, including the caller's
+     * @param table Transposition table shared by every thread
+     */
+    public ParallelSearch(int threads, TranspositionTable table) {
+        this.table = table;
+        searches = new Search[Math.max(1, threads)];
+        for(int i = 0; i < searches.length; i++)
+            searches[i] = new Search(table);
+
+        if(searches.length > 1) {
+            helpers = Executors.newFixedThreadPool(searches.length - 1, runnable -> {
+                Thread thread = new Thread(runnable, "search-helper");
+                thread.setDaemon(true); //helpers must not keep the program alive after the game
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Searches a position with every thread until the time budget is nearly used up
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the discs with toMove as owner 0
+     * @param timeLimit Nanoseconds available for the move
+     * @return Best square to play, or Search.PASS if no move is available
+     */
+    public int iterativeDeepening(long toMove, long other, long discHash, long timeLimit) {
+        return search(toMove, other, discHash, 0, timeLimit / 2, timeLimit, 64);
+    }
+
+    /**
+     * Searches a position with every thread between a soft and a hard time limit
+     * (see Search.iterativeDeepening)
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the discs with toMove as owner 0
+     * @param softLimit Nanoseconds after which the main thread starts no new iteration
+     * @param hardLimit Nanoseconds after which the search stops
+     * @return Best square to play, or Search.PASS if no move is available
+     */
+    public int iterativeDeepening(long toMove, long other, long discHash, long softLimit, long hardLimit) {
+        return search(toMove, other, discHash, 0, softLimit, hardLimit, 64);
+    }
+
+    /**
+     * Searches a position with every thread until the main thread completes the given depth
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the discs with toMove as owner 0
+     * @param depth Number of plies to search
+     * @return Best square to play, or Search.PASS if no move is available
+     */
+    public int bestMove(long toMove, long other, long discHash, int depth) {
+        return search(toMove, other, discHash, 0, NO_DEADLINE, NO_DEADLINE, depth);
+    }
+
+    /**
+     * Searches with no time limit until the given depth is completed or another
+     * thread calls stop; used to think on the opponent's time
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the position (see Search.setPosition)
+     * @param rootOwner Zobrist owner of toMove's discs in discHash
+     * @param maxDepth Deepest iteration the main thread runs
+     * @return Best square found by the main thread, or Search.PASS if no move is available
+     */
+    public int ponder(long toMove, long other, long discHash, int rootOwner, int maxDepth) {
+        return search(toMove, other, discHash, rootOwner, NO_DEADLINE, NO_DEADLINE, maxDepth);
+    }
+
+    /**
+     * Asks a running search, on another thread, to stop; the search returns the
+     * best move of its last completed iteration
+     */
+    public void stop() {
+        for(Search search : searches)
+            search.stop();
+    }
+
+    /**
+     * Gives every thread its own ProbCut levels instead of the global ones
+     * @param levels Selectivity level of each game stage
+     */
+    public void setSelectivity(int[] levels) {
+        for(Search search : searches)
+            search.setSelectivity(levels);
+    }
+
+    /**
+     * Starts the helpers, runs the main search on this thread, then stops the helpers
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the position
+     * @param rootOwner Zobrist owner of toMove's discs in discHash
+     * @param softLimit Nanoseconds after which the main thread starts no new iteration
+     * @param hardLimit Nanoseconds after which the search stops
+     * @param maxDepth Deepest iteration the main thread runs
+     * @return Best square found by the main thread
+     */
+    private int search(long toMove, long other, long discHash, int rootOwner, long softLimit, long hardLimit, int maxDepth) {
+        long start = System.nanoTime();
+        Future<?>[] running = new Future<?>[searches.length];
+        table.newSearch();
+
+        for(int i = 1; i < searches.length; i++) {
+            Search helper = searches[i];
+            helper.setPosition(toMove, other, discHash, rootOwner);
+            helper.prepare(i);
+            int firstDepth = 1 + (i & 1); //half the helpers run one ply ahead of the main thread
+            running[i] = helpers.submit(() -> helper.iterativeDeepening(NO_DEADLINE, firstDepth, 64));
+        }
+
+        Search main = searches[0];
+        main.setPosition(toMove, other, discHash, rootOwner);
+        main.prepare(0);
+        int move = main.iterativeDeepening(softLimit, hardLimit, 1, maxDepth);
+
+        for(int i = 1; i < searches.length; i++)
+            searches[i].stop();
+        for(int i = 1; i < searches.length; i++) {
+            try {
+                running[i].get();
+            }
+            catch(Exception e) {
+                System.out.println("C Search helper failed: " + e);
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        budget = hardLimit;
+
+        return move;
+    }
+
+    /**
+     * Returns the depth completed by the main thread
+     * @return Depth in plies
+     */
+    public int getDepth() {
+        return searches[0].getDepth();
+    }
+
+    /**
+     * Returns the score found by the main thread
+     * @return Score from the side to move's perspective
+     */
+    public int getScore() {
+        return searches[0].getScore();
+    }
+
+    /**
+     * Rebuilds the main thread's expected line of play (see Search.getPrincipalVariation)
+     * @param line Receives the moves, root move first
+     * @return Number of moves written
+     */
+    public int getPrincipalVariation(int[] line) {
+        return searches[0].getPrincipalVariation(line);
+    }
+
+    /**
+     * Returns the positions visited by all threads during the last search
+     * @return Node count
+     */
+    public long getNodes() {
+        long total = 0;
+        for(Search search : searches)
+            total += search.getNodes();
+        return total;
+    }
+
+    /**
+     * Gathers the counters of every thread from the last search
+     * @return Statistics of the last search
+     */
+    public SearchStats getStats() {
+        SearchStats stats = new SearchStats();
+        for(int i = 0; i < searches.length; i++)
+            searches[i].addStats(stats, i == 0);
+        stats.elapsed = elapsed;
+        stats.budget = (budget == NO_DEADLINE) ? 0 : budget;
+        return stats;
+    }
+
+    /**
+     * Returns the number of search threads
+     * @return Thread count
+     */
+    public int getThreads() {
+        return searches.length;
+    }
+
+    /**
+     * Returns the shared transposition table
+     * @return Transposition table
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Scaling benchmark; times a fixed-depth search of a midgame position at 1, 2, 4, 8 and 16 threads
+     * @param args Optional search depth (default 12)
+     */
+    public static void main(String[] args) {
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 12;
+
+        //reach a midgame position by letting a shallow search play both sides
+        Search opening = new Search(new TranspositionTable(1));
+        long player = 0x0000000810000000L;
+        long opponent = 0x0000001008000000L;
+        for(int i = 0; i < 20; i++) {
+            opening.setPosition(player, opponent);
+            int move = opening.bestMove(1);
+            if(move != Search.PASS) {
+                long flipped = BitBoard.flips(player, opponent, move);
+                player |= flipped | (1L << move);
+                opponent &= ~flipped;
+            }
+            long temp = player;
+            player = opponent;
+            opponent = temp;
+        }
+
+        ParallelSearch warmup = new ParallelSearch(1, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+        warmup.bestMove(player, opponent, Zobrist.hash(player, opponent), depth); //let the JIT compile the search first
+
+        System.out.println("threads  seconds  nodes  nodes/sec  speedup");
+        double baseline = 0;
+        for(int threads = 1; threads <= 16; threads *= 2) {
+            ParallelSearch search = new ParallelSearch(threads, new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+            long start = System.nanoTime();
+            search.bestMove(player, opponent, Zobrist.hash(player, opponent), depth);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if(threads == 1)
+                baseline = seconds;
+            System.out.printf("%7d  %7.3f  %d  %.0f  %.2f%n", threads, seconds, search.getNodes(),
+                              search.getNodes() / seconds, baseline / seconds);
+            search.shutdown();
+        }
+    }
+
+    /**
+     * Stops the helper threads; the search cannot be used afterwards
+     */
+    public void shutdown() {
+        if(helpers != null)
+            helpers.shutdownNow();
+    }
+}
@@ -0,0 +1,369 @@
+/**
+ * @author Kenny Tram
+ * Pattern evaluation: the board is cut into lines and corner regions, each region's
+ * contents is read as a base-3 number, and that number indexes a table of weights.
+ * Scores are in hundredths of a disc of expected final margin.
+ */
+package KKT_Othello;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+public class PatternEval {
+    public static final int STAGES = 6; //weights are staged by game phase (disc count)
+    public static final int WEIGHTS_MAGIC = 0x4b4b5457; //first int of a weights file
+    public static final String WEIGHTS_FILE = "weights.bin"; //loaded at startup when present
+
+    /**
+     * Squares of each pattern type in one orientation, as {row, column} pairs;
+     * the other orientations are generated by the 8 board symmetries
+     */
+    private static final int PATTERNS[][][] = {
+        {{0,0}, {0,1}, {0,2}, {0,3}, {0,4}, {0,5}, {0,6}, {0,7}, {1,1}, {1,6}}, //edge + 2 X squares
+        {{0,0}, {0,1}, {0,2}, {1,0}, {1,1}, {1,2}, {2,0}, {2,1}, {2,2}},        //corner 3x3
+        {{0,0}, {0,1}, {0,2}, {0,3}, {0,4}, {1,0}, {1,1}, {1,2}, {1,3}, {1,4}}, //corner 2x5
+        {{0,0}, {1,1}, {2,2}, {3,3}, {4,4}, {5,5}, {6,6}, {7,7}},               //main diagonal
+        {{0,1}, {1,2}, {2,3}, {3,4}, {4,5}, {5,6}, {6,7}},                      //diagonal of 7
+        {{0,2}, {1,3}, {2,4}, {3,5}, {4,6}, {5,7}},                             //diagonal of 6
+        {{0,3}, {1,4}, {2,5}, {3,6}, {4,7}},                                    //diagonal of 5
+        {{0,4}, {1,5}, {2,6}, {3,7}},                                           //diagonal of 4
+        {{1,0}, {1,1}, {1,2}, {1,3}, {1,4}, {1,5}, {1,6}, {1,7}},               //second row
+        {{2,0}, {2,1}, {2,2}, {2,3}, {2,4}, {2,5}, {2,6}, {2,7}},               //third row
+        {{3,0}, {3,1}, {3,2}, {3,3}, {3,4}, {3,5}, {3,6}, {3,7}}                //fourth row
+    };
+    public static final int TYPES = PATTERNS.length;
+
+    /**
+     * Static value of each square, used to give the tables sensible starting weights
+     */
+    private static final int SQUARE_VALUES[] = {100, -20, 10,  5,  5, 10, -20, 100,
+                                                -20, -50, -2, -2, -2, -2, -50, -20,
+                                                 10,  -2,  1,  1,  1,  1,  -2,  10,
+                                                  5,  -2,  1,  0,  0,  1,  -2,   5,
+                                                  5,  -2,  1,  0,  0,  1,  -2,   5,
+                                                 10,  -2,  1,  1,  1,  1,  -2,  10,
+                                                -20, -50, -2, -2, -2, -2, -50, -20,
+                                                100, -20, 10,  5,  5, 10, -20, 100};
+
+    public static int instanceType[]; //pattern type of each instance on the board
+    public static int instanceSquares[][]; //squares (bit numbers) of each instance, lowest digit first
+    public static int instances;
+    private static int squareInstances[][]; //instances containing each square
+    private static int squarePowers[][]; //3^digit of the square within each of those instances
+
+    public static short weights[][][]; //[stage][type][base-3 index]
+
+    static {
+        buildInstances();
+        weights = new short[STAGES][TYPES][];
+        for(int stage = 0; stage < STAGES; stage++) {
+            for(int type = 0; type < TYPES; type++)
+                weights[stage][type] = new short[power(3, PATTERNS[type].length)];
+        }
+        setDefaultWeights();
+    }
+
+    private int[] indices = new int[instances]; //current base-3 index of every instance
+
+    /**
+     * Generates every distinct placement of every pattern type under the 8 board
+     * symmetries, and the per-square lists used for incremental updates
+     */
+    private static void buildInstances() {
+        ArrayList<int[]> squares = new ArrayList<int[]>();
+        ArrayList<Integer> types = new ArrayList<Integer>();
+        HashSet<String> seen = new HashSet<String>();
+
+        for(int type = 0; type < TYPES; type++) {
+            for(int symmetry = 0; symmetry < 8; symmetry++) {
+                int[] placed = new int[PATTERNS[type].length];
+                long mask = 0;
+                for(int i = 0; i < placed.length; i++) {
+                    placed[i] = transform(symmetry, PATTERNS[type][i][0], PATTERNS[type][i][1]);
+                    mask |= 1L << placed[i];
+                }
+                if(seen.add(type + ":" + mask)) { //skip symmetries that cover the same squares
+                    squares.add(placed);
+                    types.add(type);
+                }
+            }
+        }
+
+        instances = squares.size();
+        instanceSquares = squares.toArray(new int[0][]);
+        instanceType = new int[instances];
+        for(int i = 0; i < instances; i++)
+            instanceType[i] = types.get(i);
+
+        squareInstances = new int[64][];
+        squarePowers = new int[64][];
+        for(int bit = 0; bit < 64; bit++) {
+            int count = 0;
+            for(int[] instance : instanceSquares) {
+                for(int square : instance) {
+                    if(square == bit)
+                        count++;
+                }
+            }
+            squareInstances[bit] = new int[count];
+            squarePowers[bit] = new int[count];
+            count = 0;
+            for(int i = 0; i < instances; i++) {
+                for(int digit = 0; digit < instanceSquares[i].length; digit++) {
+                    if(instanceSquares[i][digit] == bit) {
+                        squareInstances[bit][count] = i;
+                        squarePowers[bit][count] = power(3, digit);
+                        count++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Maps a square through one of the 8 symmetries of the board
+     * @param symmetry Symmetry number (0 - 7)
+     * @param row Row (0 - 7)
+     * @param col Column (0 - 7)
+     * @return Bit number of the transformed square
+     */
+    public static int transform(int symmetry, int row, int col) {
+        if((symmetry & 1) != 0)
+            col = 7 - col;
+        if((symmetry & 2) != 0)
+            row = 7 - row;
+        if((symmetry & 4) != 0) {
+            int temp = row;
+            row = col;
+            col = temp;
+        }
+        return row * 8 + col;
+    }
+
+    /**
+     * Fills the tables with starting weights: the sum of the static square values
+     * of the discs in the pattern, shared out between the instances covering each square
+     */
+    public static void setDefaultWeights() {
+        for(int type = 0; type < TYPES; type++) {
+            int[] instance = null;
+            for(int i = 0; i < instances && instance == null; i++) {
+                if(instanceType[i] == type)
+                    instance = instanceSquares[i];
+            }
+
+            short[] table = weights[0][type];
+            for(int index = 0; index < table.length; index++) {
+                int value = 0;
+                int rest = index;
+                for(int digit = 0; digit < instance.length; digit++) {
+                    int owner = rest % 3;
+                    rest /= 3;
+                    int square = instance[digit];
+                    int share = SQUARE_VALUES[square] * 4 / squareInstances[square].length;
+                    if(owner == 1)
+                        value += share;
+                    else if(owner == 2)
+                        value -= share;
+                }
+                table[index] = (short)value;
+            }
+            for(int stage = 1; stage < STAGES; stage++)
+                weights[stage][type] = table.clone();
+        }
+    }
+
+    /**
+     * Identifies the weights in use, so data fitted against one set of weights
+     * (such as the ProbCut parameters) can tell when another set is loaded
+     * @return 64-bit FNV-1a hash of every weight, as 16 hex digits
+     */
+    public static String fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        for(int stage = 0; stage < STAGES; stage++) {
+            for(int type = 0; type < TYPES; type++) {
+                for(short weight : weights[stage][type]) {
+                    hash = (hash ^ (weight & 0xff)) * 0x100000001b3L;
+                    hash = (hash ^ ((weight >>> 8) & 0xff)) * 0x100000001b3L;
+                }
+            }
+        }
+        return String.format("%016x", hash);
+    }
+
+    /**
+     * Replaces the weights with those in a file written by saveWeights
+     * @param fileName Weights file
+     * @throws IOException If the file cannot be read or does not match these patterns
+     */
+    public static void loadWeights(String fileName) throws IOException {
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            if(input.readInt() != WEIGHTS_MAGIC || input.readInt() != STAGES || input.readInt() != TYPES)
+                throw new IOException("Not a weights file for these patterns: " + fileName);
+
+            short[][][] loaded = new short[STAGES][TYPES][];
+            for(int stage = 0; stage < STAGES; stage++) {
+                for(int type = 0; type < TYPES; type++) {
+                    int length = input.readInt();
+                    if(length != weights[stage][type].length)
+                        throw new IOException("Wrong table size in " + fileName);
+                    loaded[stage][type] = new short[length];
+                    for(int i = 0; i < length; i++)
+                        loaded[stage][type][i] = input.readShort();
+                }
+            }
+            weights = loaded;
+        }
+    }
+
+    /**
+     * Writes the current weights to a file
+     * @param fileName Weights file
+     * @throws IOException If the file cannot be written
+     */
+    public static void saveWeights(String fileName) throws IOException {
+        try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            output.writeInt(WEIGHTS_MAGIC);
+            output.writeInt(STAGES);
+            output.writeInt(TYPES);
+            for(int stage = 0; stage < STAGES; stage++) {
+                for(int type = 0; type < TYPES; type++) {
+                    output.writeInt(weights[stage][type].length);
+                    for(short weight : weights[stage][type])
+                        output.writeShort(weight);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes every instance index for a position
+     * @param owner0 Bitboard of the discs counted as digit 1
+     * @param owner1 Bitboard of the discs counted as digit 2
+     */
+    public void setPosition(long owner0, long owner1) {
+        for(int i = 0; i < instances; i++)
+            indices[i] = index(i, owner0, owner1);
+    }
+
+    /**
+     * Updates the indices for a disc placed by one owner and the discs it flipped
+     * @param bit Square played
+     * @param flipped Bitboard of flipped discs
+     * @param owner 0 or 1, the owner making the move
+     */
+    public void place(int bit, long flipped, int owner) {
+        int[] list = squareInstances[bit];
+        int[] powers = squarePowers[bit];
+        for(int i = 0; i < list.length; i++)
+            indices[list[i]] += (owner + 1) * powers[i];
+
+        int change = (owner == 0) ? -1 : 1; //digit 2 -> 1 or 1 -> 2
+        while(flipped != 0) {
+            int square = Long.numberOfTrailingZeros(flipped);
+            list = squareInstances[square];
+            powers = squarePowers[square];
+            for(int i = 0; i < list.length; i++)
+                indices[list[i]] += change * powers[i];
+            flipped &= flipped - 1;
+        }
+    }
+
+    /**
+     * Reverses place
+     * @param bit Square that was played
+     * @param flipped Bitboard of flipped discs
+     * @param owner 0 or 1, the owner that made the move
+     */
+    public void remove(int bit, long flipped, int owner) {
+        int[] list = squareInstances[bit];
+        int[] powers = squarePowers[bit];
+        for(int i = 0; i < list.length; i++)
+            indices[list[i]] -= (owner + 1) * powers[i];
+
+        int change = (owner == 0) ? 1 : -1;
+        while(flipped != 0) {
+            int square = Long.numberOfTrailingZeros(flipped);
+            list = squareInstances[square];
+            powers = squarePowers[square];
+            for(int i = 0; i < list.length; i++)
+                indices[list[i]] += change * powers[i];
+            flipped &= flipped - 1;
+        }
+    }
+
+    /**
+     * Scores the current indices
+     * @param discs Number of discs on the board, which selects the stage
+     * @return Score from owner 0's perspective
+     */
+    public int score(int discs) {
+        short[][] table = weights[stage(discs)];
+        int total = 0;
+        for(int i = 0; i < instances; i++)
+            total += table[instanceType[i]][indices[i]];
+        return total;
+    }
+
+    /**
+     * Scores a position from scratch
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return Score from the side to move's perspective
+     */
+    public static int evaluate(long player, long opponent) {
+        short[][] table = weights[stage(BitBoard.count(player | opponent))];
+        int total = 0;
+        for(int i = 0; i < instances; i++)
+            total += table[instanceType[i]][index(i, player, opponent)];
+        return total;
+    }
+
+    /**
+     * Reads one instance as a base-3 number
+     * @param instance Instance number
+     * @param owner0 Bitboard of the discs counted as digit 1
+     * @param owner1 Bitboard of the discs counted as digit 2
+     * @return Base-3 index
+     */
+    public static int index(int instance, long owner0, long owner1) {
+        int[] squares = instanceSquares[instance];
+        int index = 0;
+        for(int digit = squares.length - 1; digit >= 0; digit--) {
+            index *= 3;
+            if((owner0 & (1L << squares[digit])) != 0)
+                index += 1;
+            else if((owner1 & (1L << squares[digit])) != 0)
+                index += 2;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the game phase for a disc count
+     * @param discs Discs on the board (4 - 64)
+     * @return Stage (0 - STAGES-1)
+     */
+    public static int stage(int discs) {
+        return Math.min(STAGES - 1, (discs - 4) * STAGES / 61);
+    }
+
+    /**
+     * Calculates base to the exponent
+     * @param base Base
+     * @param exponent Non-negative exponent
+     * @return base^exponent
+     */
+    private static int power(int base, int exponent) {
+        int result = 1;
+        for(int i = 0; i < exponent; i++)
+            result *= base;
+        return result;
+    }
+}
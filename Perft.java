@@ -0,0 +1,161 @@
+/**
+ * @author Kenny Tram
+ * Perft: counts every legal move sequence to a fixed depth, to validate and
+ * time move generation. A pass is counted as a move, and a finished game is
+ * counted as a single leaf.
+ */
+package KKT_Othello;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class Perft {
+    /**
+     * Known leaf counts from the starting position, indexed by depth
+     */
+    public static final long KNOWN[] = {1L, 4L, 12L, 56L, 244L, 1396L, 8200L, 55092L, 390216L,
+                                        3005288L, 24571284L, 212258800L};
+
+    /**
+     * Counts leaves on bitboards, bulk-counting the moves at the last ply instead of playing them
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @param depth Plies remaining
+     * @param passed True if the previous move was a pass
+     * @return Number of leaves
+     */
+    public static long count(long player, long opponent, int depth, boolean passed) {
+        if(depth == 0)
+            return 1;
+
+        long moves = BitBoard.legalMoves(player, opponent);
+        if(moves == 0) {
+            if(passed)
+                return 1; //game over
+            return count(opponent, player, depth - 1, true);
+        }
+        if(depth == 1)
+            return BitBoard.count(moves);
+
+        long total = 0;
+        while(moves != 0) {
+            int bit = Long.numberOfTrailingZeros(moves);
+            long flipped = BitBoard.flips(player, opponent, bit);
+            total += count(opponent & ~flipped, player | flipped | (1L << bit), depth - 1, false);
+            moves &= moves - 1;
+        }
+        return total;
+    }
+
+    /**
+     * Counts leaves through the Board API (generateMoves, applyMove and pass moves),
+     * so the bitboard and mailbox move generators can be checked against each other
+     * @param board Board being counted
+     * @param player Player to move
+     * @param other The other player
+     * @param depth Plies remaining
+     * @param passed True if the previous move was a pass
+     * @return Number of leaves
+     */
+    public static long count(Board board, Player player, Player other, int depth, boolean passed) {
+        if(depth == 0)
+            return 1;
+
+        ArrayList<Move> moves = board.generateMoves(player);
+        if(moves.isEmpty()) {
+            if(passed)
+                return 1; //game over
+            Board next = new Board(board);
+            next.applyMove(player.getNumber(), new Move(player.getColor()));
+            return count(next, other, player, depth - 1, true);
+        }
+
+        long total = 0;
+        for(Move move : moves) {
+            Board next = new Board(board);
+            next.applyMove(player.getNumber(), move);
+            total += count(next, other, player, depth - 1, false);
+        }
+        return total;
+    }
+
+    /**
+     * Runs perft from the starting position or from loaded positions. Counts from
+     * the starting position are checked against KNOWN. Counts from loaded positions
+     * are checked against a second move generator: -board and -mailbox are checked
+     * against the bitboards, and the bitboard counts against the mailbox generator.
+     * @param args [depth] [-position "squares side"] [-file name] [-board] [-mailbox]
+     * @throws IOException If the position file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = 9;
+        boolean useBoard = false;
+        boolean mailbox = false;
+        ArrayList<Position> positions = new ArrayList<Position>();
+
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-position"))
+                positions.add(Position.parse(args[++i]));
+            else if(args[i].equals("-file"))
+                positions.addAll(Position.load(args[++i]));
+            else if(args[i].equals("-board"))
+                useBoard = true;
+            else if(args[i].equals("-mailbox")) {
+                useBoard = true;
+                mailbox = true;
+            }
+            else
+                depth = Integer.parseInt(args[i]);
+        }
+        boolean fromStart = positions.isEmpty();
+        if(fromStart)
+            positions.add(Position.initial());
+
+        int mismatches = 0;
+        for(Position position : positions) {
+            if(!fromStart)
+                System.out.println(position);
+            for(int d = 1; d <= depth; d++) {
+                long start = System.nanoTime();
+                long leaves = useBoard ? countBoard(position, mailbox, d) : count(position.player(), position.opponent(), d, false);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                long expected;
+                if(fromStart)
+                    expected = (d < KNOWN.length) ? KNOWN[d] : -1;
+                else if(useBoard)
+                    expected = count(position.player(), position.opponent(), d, false);
+                else
+                    expected = countBoard(position, true, d);
+                String check = "";
+                if(expected >= 0) {
+                    check = (leaves == expected) ? "  ok" : "  MISMATCH (expected " + expected + ")";
+                    if(leaves != expected)
+                        mismatches++;
+                }
+                System.out.printf("perft %2d  %14d  %8.3f s  %12.0f leaves/sec%s%n",
+                                  d, leaves, seconds, leaves / Math.max(seconds, 1e-9), check);
+            }
+        }
+        if(mismatches > 0)
+            System.out.println(mismatches + " MISMATCHES");
+    }
+
+    /**
+     * Counts leaves of a position through the Board API
+     * @param position Position to count from
+     * @param mailbox True to use the mailbox move generator, false for the bitboard one
+     * @param depth Plies to count
+     * @return Number of leaves
+     */
+    private static long countBoard(Position position, boolean mailbox, int depth) {
+        boolean bitboards = Board.useBitboards;
+        Board.useBitboards = !mailbox;
+        Player me = new Player('B', Board.ME);
+        Player opponent = new Player('W', Board.OPPONENT);
+        Board board = new Board(me, opponent);
+        board.setupBoard(position.player(), position.opponent());
+        long leaves = count(board, me, opponent, depth, false);
+        Board.useBitboards = bitboards;
+        return leaves;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * @author Kenny Tram
+ * A board position written as 64 squares (a1 - h8) plus the side to move
+ */
+package KKT_Othello;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class Position {
+    public long black;
+    public long white;
+    public boolean blackToMove;
+
+    /**
+     * Creates a position from bitboards
+     * @param blackDiscs Bitboard of black's discs
+     * @param whiteDiscs Bitboard of white's discs
+     * @param blackMoves True if black is to move
+     */
+    public Position(long blackDiscs, long whiteDiscs, boolean blackMoves) {
+        black = blackDiscs;
+        white = whiteDiscs;
+        blackToMove = blackMoves;
+    }
+
+    /**
+     * Parses a position of the form "<64 squares> <B|W>", where each square
+     * is 'B'/'X'/'*' for black, 'W'/'O' for white and '-'/'.' for empty
+     * @param line Text of the position
+     * @return Parsed position
+     */
+    public static Position parse(String line) {
+        String text = line.trim();
+        if(text.length() < 64)
+            throw new IllegalArgumentException("Position needs 64 squares: " + line);
+
+        long blackDiscs = 0;
+        long whiteDiscs = 0;
+        for(int bit = 0; bit < 64; bit++) {
+            switch(Character.toUpperCase(text.charAt(bit))) {
+                case 'B':
+                case 'X':
+                case '*':
+                    blackDiscs |= 1L << bit;
+                    break;
+                case 'W':
+                case 'O':
+                    whiteDiscs |= 1L << bit;
+                    break;
+                case '-':
+                case '.':
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad square '" + text.charAt(bit) + "' in: " + line);
+            }
+        }
+
+        String side = text.substring(64).trim();
+        boolean blackMoves = side.isEmpty() || Character.toUpperCase(side.charAt(0)) != 'W';
+        return new Position(blackDiscs, whiteDiscs, blackMoves);
+    }
+
+    /**
+     * Reads every position in a file; blank lines and lines starting with '#' are skipped
+     * @param fileName Path of the file
+     * @return Positions in file order
+     * @throws IOException If the file cannot be read
+     */
+    public static ArrayList<Position> load(String fileName) throws IOException {
+        ArrayList<Position> positions = new ArrayList<Position>();
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(!line.isEmpty() && !line.startsWith("#"))
+                    positions.add(parse(line));
+            }
+        }
+
+        return positions;
+    }
+
+    /**
+     * Returns the starting position, black to move
+     * @return Initial position
+     */
+    public static Position initial() {
+        return new Position(0x0000000810000000L, 0x0000001008000000L, true);
+    }
+
+    /**
+     * Returns the discs of the side to move
+     * @return Bitboard
+     */
+    public long player() {
+        return blackToMove ? black : white;
+    }
+
+    /**
+     * Returns the discs of the side not to move
+     * @return Bitboard
+     */
+    public long opponent() {
+        return blackToMove ? white : black;
+    }
+
+    /**
+     * Returns the number of empty squares
+     * @return Empty count
+     */
+    public int empties() {
+        return 64 - BitBoard.count(black | white);
+    }
+
+    /**
+     * Makes the string representation parsed by parse
+     * @return 64 squares, a space and the side to move
+     */
+    public String toString() {
+        StringBuilder text = new StringBuilder(66);
+        for(int bit = 0; bit < 64; bit++) {
+            if((black & (1L << bit)) != 0)
+                text.append('B');
+            else if((white & (1L << bit)) != 0)
+                text.append('W');
+            else
+                text.append('-');
+        }
+        text.append(' ').append(blackToMove ? 'B' : 'W');
+        return text.toString();
+    }
+}
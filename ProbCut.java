@@ -0,0 +1,399 @@
+/**
+ * @author Kenny Tram
+ * Multi-ProbCut: the score of a deep search is predicted from a shallow one
+ * as deep = slope * shallow + intercept, with normally distributed error of
+ * deviation sigma. A node is cut when a shallow null-window probe says the
+ * deep search would fail high (or low) with the configured confidence. The
+ * parameters are fitted per game stage and depth from logged search pairs:
+ *   ProbCut generate <positions> <pairs file> [-maxdepth D] [-threads N] [-random K] [-seed S] [-weights file]
+ *   ProbCut fit <pairs file> <parameters file>
+ * The fit only holds for the evaluation weights it was made with, so the pair
+ * log and the parameters file record PatternEval.fingerprint() ("none" when no
+ * weights are loaded and the leaves are scored with Search.evaluate) and load
+ * refuses parameters made for another evaluation.
+ */
+package KKT_Othello;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProbCut {
+    public static final String PARAMETERS_FILE = "probcut.txt";
+    public static final int MIN_DEPTH = 3; //shallowest node a probe is tried at
+    public static final int MAX_DEPTH = 20; //deepest node parameters can be given for
+    public static final int MIN_PAIRS = 30; //search pairs needed to fit a stage and depth
+    public static final int DEFAULT_SELECTIVITY = 1; //won 24-12 (2 draws) at equal time; levels 2 and 3 did no better
+
+    /**
+     * Confidence of each selectivity level, in standard deviations; level 0
+     * turns ProbCut off and higher levels prune more at greater risk
+     */
+    public static final double CONFIDENCE[] = {0, 2.6, 2.0, 1.5, 1.0};
+
+    public static int[] selectivity = new int[PatternEval.STAGES]; //level used in each game stage
+
+    private static double[][] slope = new double[PatternEval.STAGES][MAX_DEPTH + 1];
+    private static double[][] intercept = new double[PatternEval.STAGES][MAX_DEPTH + 1];
+    private static double[][] sigma = new double[PatternEval.STAGES][MAX_DEPTH + 1]; //0 where nothing was fitted
+
+    private static PrintWriter pairs; //pair log written by generate
+    private static long pairsWritten;
+
+    static {
+        setSelectivity(DEFAULT_SELECTIVITY);
+    }
+
+    /**
+     * Sets the same selectivity level for every game stage
+     * @param level Index into CONFIDENCE
+     */
+    public static void setSelectivity(int level) {
+        for(int stage = 0; stage < selectivity.length; stage++)
+            selectivity[stage] = level;
+    }
+
+    /**
+     * Sets the selectivity levels from text: one level for every stage, or a
+     * comma separated level per stage, opening first (e.g. "1,2,2,3,3,3")
+     * @param levels Level or levels
+     */
+    public static void setSelectivity(String levels) {
+        System.arraycopy(parseSelectivity(levels), 0, selectivity, 0, selectivity.length);
+    }
+
+    /**
+     * Parses selectivity levels written as for setSelectivity(String)
+     * @param levels Level or levels
+     * @return Level of each stage
+     */
+    public static int[] parseSelectivity(String levels) {
+        String[] parts = levels.split(",");
+        int[] result = new int[PatternEval.STAGES];
+        for(int stage = 0; stage < result.length; stage++)
+            result[stage] = Integer.parseInt(parts[Math.min(stage, parts.length - 1)].trim());
+        return result;
+    }
+
+    /**
+     * Returns the depth of the probe for a node
+     * @param depth Remaining depth of the node
+     * @return Shallower depth of the same parity, about half of depth
+     */
+    public static int probeDepth(int depth) {
+        return depth - 2 * ((depth + 2) / 4);
+    }
+
+    /**
+     * Tells whether a probe should be tried
+     * @param level Selectivity level of the stage
+     * @param stage Game stage (see PatternEval.stage)
+     * @param depth Remaining depth of the node
+     * @return True if the level is on and parameters were fitted for the stage and depth
+     */
+    public static boolean applies(int level, int stage, int depth) {
+        return depth >= MIN_DEPTH && depth <= MAX_DEPTH && level > 0 && sigma[stage][depth] > 0;
+    }
+
+    /**
+     * Calculates the probe score above which the deep search is expected to reach beta
+     * @param level Selectivity level of the stage
+     * @param stage Game stage
+     * @param depth Remaining depth of the node
+     * @param beta Upper bound of the node's window
+     * @return Probe bound
+     */
+    public static int highBound(int level, int stage, int depth, int beta) {
+        double margin = CONFIDENCE[level] * sigma[stage][depth];
+        return (int)Math.ceil((beta + margin - intercept[stage][depth]) / slope[stage][depth]);
+    }
+
+    /**
+     * Calculates the probe score below which the deep search is expected to stay under alpha
+     * @param level Selectivity level of the stage
+     * @param stage Game stage
+     * @param depth Remaining depth of the node
+     * @param alpha Lower bound of the node's window
+     * @return Probe bound
+     */
+    public static int lowBound(int level, int stage, int depth, int alpha) {
+        double margin = CONFIDENCE[level] * sigma[stage][depth];
+        return (int)Math.floor((alpha - margin - intercept[stage][depth]) / slope[stage][depth]);
+    }
+
+    /**
+     * Loads fitted parameters; stages and depths missing from the file get no probes.
+     * Load the evaluation weights first: parameters fitted for other weights are refused.
+     * @param fileName Text file of a "weights <fingerprint>" line and "stage depth slope intercept sigma" lines
+     * @return Number of stage and depth pairs loaded
+     * @throws IOException If the file cannot be read or was fitted for other weights
+     */
+    public static int load(String fileName) throws IOException {
+        double[][] newSlope = new double[PatternEval.STAGES][MAX_DEPTH + 1];
+        double[][] newIntercept = new double[PatternEval.STAGES][MAX_DEPTH + 1];
+        double[][] newSigma = new double[PatternEval.STAGES][MAX_DEPTH + 1];
+        int loaded = 0;
+        String fittedFor = null;
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split("\\s+");
+                if(fields[0].equals("weights") && fields.length == 2) {
+                    fittedFor = fields[1];
+                    continue;
+                }
+                if(fields.length != 5)
+                    throw new IOException("Bad ProbCut line: " + line);
+                int stage = Integer.parseInt(fields[0]);
+                int depth = Integer.parseInt(fields[1]);
+                if(stage < 0 || stage >= PatternEval.STAGES || depth < MIN_DEPTH || depth > MAX_DEPTH)
+                    throw new IOException("Bad ProbCut stage or depth: " + line);
+                newSlope[stage][depth] = Double.parseDouble(fields[2]);
+                newIntercept[stage][depth] = Double.parseDouble(fields[3]);
+                newSigma[stage][depth] = Double.parseDouble(fields[4]);
+                if(newSlope[stage][depth] <= 0)
+                    throw new IOException("Bad ProbCut slope: " + line);
+                loaded++;
+            }
+        }
+        catch(NumberFormatException e) {
+            throw new IOException("Bad ProbCut number: " + e.getMessage());
+        }
+        if(fittedFor == null)
+            throw new IOException(fileName + " does not say which evaluation weights it was fitted for");
+        if(!fittedFor.equals(weightsUsed()))
+            throw new IOException(fileName + " was fitted for other evaluation weights (" + fittedFor + ", loaded "
+                                  + weightsUsed() + "); run ProbCut generate and fit again");
+
+        slope = newSlope;
+        intercept = newIntercept;
+        sigma = newSigma;
+        return loaded;
+    }
+
+    /**
+     * Identifies the evaluation the searches score leaves with
+     * @return PatternEval.fingerprint() if the pattern evaluation is on, otherwise "none"
+     */
+    private static String weightsUsed() {
+        return Search.usePatterns ? PatternEval.fingerprint() : "none";
+    }
+
+    /**
+     * Runs one stage of the fitting pipeline
+     * @param args generate or fit and their arguments (see the class comment)
+     * @throws Exception If a file cannot be read or written
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length >= 3 && args[0].equals("generate"))
+            generate(Integer.parseInt(args[1]), args[2], args);
+        else if(args.length >= 3 && args[0].equals("fit"))
+            fit(args[1], args[2]);
+        else
+            System.out.println("Usage: ProbCut generate <positions> <pairs file> [-maxdepth D] [-threads N] [-random K] [-seed S] [-weights file]\n"
+                               + "       ProbCut fit <pairs file> <parameters file>");
+    }
+
+    /**
+     * Searches positions from self-play games at every depth pair and appends
+     * "discs depth shallow-score deep-score" lines to the pair log
+     * @param positions Number of positions to search
+     * @param fileName Pair log, appended to
+     * @param args Options
+     * @throws Exception If the file cannot be written
+     */
+    public static void generate(int positions, String fileName, String[] args) throws Exception {
+        int maxDepth = Math.min(MAX_DEPTH, Integer.parseInt(option(args, "-maxdepth", "10")));
+        int threads = Integer.parseInt(option(args, "-threads", "" + Runtime.getRuntime().availableProcessors()));
+        int randomMoves = Integer.parseInt(option(args, "-random", "8"));
+        long seed = Long.parseLong(option(args, "-seed", "" + System.nanoTime()));
+        String weightsFile = option(args, "-weights", PatternEval.WEIGHTS_FILE); //as Game loads them
+        AtomicInteger next = new AtomicInteger();
+
+        if(new File(weightsFile).exists()) {
+            PatternEval.loadWeights(weightsFile);
+            Search.usePatterns = true;
+        }
+        setSelectivity(0); //the pairs must come from full-width searches
+        pairs = new PrintWriter(new FileWriter(fileName, true));
+        pairs.println("# weights " + weightsUsed());
+        long start = System.nanoTime();
+
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                Search search = new Search(new TranspositionTable(16));
+                int n;
+                while((n = next.getAndIncrement()) < positions)
+                    searchPairs(search, new Random(seed + n), maxDepth, randomMoves);
+            });
+            workers[t].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+        pairs.close();
+
+        System.out.printf("%d positions, %d pairs in %.0f s on %d threads%n",
+                          positions, pairsWritten, (System.nanoTime() - start) / 1e9, threads);
+    }
+
+    /**
+     * Plays into a game to a random length, then searches the position reached
+     * at every depth and its probe depth
+     * @param search Search owned by the calling thread
+     * @param random Source of the moves and the game length
+     * @param maxDepth Deepest depth to log
+     * @param randomMoves Number of random moves at the start of the game
+     */
+    private static void searchPairs(Search search, Random random, int maxDepth, int randomMoves) {
+        long player = Position.initial().player();
+        long opponent = Position.initial().opponent();
+        int plies = 1 + random.nextInt(56);
+
+        for(int ply = 0; ply < plies; ply++) {
+            long moves = BitBoard.legalMoves(player, opponent);
+            if(moves == 0) {
+                if(BitBoard.legalMoves(opponent, player) == 0)
+                    break;
+            }
+            else {
+                int move;
+                if(ply < randomMoves) {
+                    int pick = random.nextInt(BitBoard.count(moves));
+                    for(int i = 0; i < pick; i++)
+                        moves &= moves - 1;
+                    move = Long.numberOfTrailingZeros(moves);
+                }
+                else {
+                    search.setPosition(player, opponent);
+                    move = search.bestMove(2);
+                }
+                long flipped = BitBoard.flips(player, opponent, move);
+                player |= flipped | (1L << move);
+                opponent &= ~flipped;
+            }
+            long temp = player;
+            player = opponent;
+            opponent = temp;
+        }
+        if(BitBoard.legalMoves(player, opponent) == 0)
+            return;
+
+        int discs = BitBoard.count(player | opponent);
+        int[] scores = new int[maxDepth + 1];
+        StringBuilder lines = new StringBuilder();
+        for(int depth = 1; depth <= Math.min(maxDepth, 64 - discs); depth++) {
+            search.getTable().clear();
+            search.setPosition(player, opponent);
+            search.bestMove(depth);
+            scores[depth] = search.getScore();
+            if(depth >= MIN_DEPTH && Math.abs(scores[depth]) < Search.WIN && Math.abs(scores[probeDepth(depth)]) < Search.WIN)
+                lines.append(discs).append(' ').append(depth).append(' ').append(scores[probeDepth(depth)])
+                     .append(' ').append(scores[depth]).append('\n');
+        }
+        writePairs(lines.toString());
+    }
+
+    /**
+     * Appends one position's pairs to the log
+     * @param lines Pair lines
+     */
+    private static synchronized void writePairs(String lines) {
+        pairs.print(lines);
+        pairs.flush();
+        for(int i = 0; i < lines.length(); i++) {
+            if(lines.charAt(i) == '\n')
+                pairsWritten++;
+        }
+    }
+
+    /**
+     * Fits deep = slope * shallow + intercept by least squares for every stage and
+     * depth with enough pairs, and writes the parameters with the residual deviation
+     * @param fileName Pair log
+     * @param parametersFile Output parameters file
+     * @throws IOException If a file cannot be read or written
+     */
+    public static void fit(String fileName, String parametersFile) throws IOException {
+        double[][][] sums = new double[PatternEval.STAGES][MAX_DEPTH + 1][6]; //n, x, y, xx, xy, yy
+        String weights = null;
+
+        try(BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if(fields.length == 3 && fields[0].equals("#") && fields[1].equals("weights")) {
+                    if(weights != null && !weights.equals(fields[2]))
+                        throw new IOException(fileName + " mixes pairs from different evaluation weights");
+                    weights = fields[2];
+                    continue;
+                }
+                if(fields.length != 4)
+                    continue;
+                int stage = PatternEval.stage(Integer.parseInt(fields[0]));
+                int depth = Integer.parseInt(fields[1]);
+                double x = Double.parseDouble(fields[2]);
+                double y = Double.parseDouble(fields[3]);
+                double[] sum = sums[stage][depth];
+                sum[0]++;
+                sum[1] += x;
+                sum[2] += y;
+                sum[3] += x * x;
+                sum[4] += x * y;
+                sum[5] += y * y;
+            }
+        }
+        if(weights == null)
+            throw new IOException(fileName + " does not say which evaluation weights made its pairs");
+
+        try(PrintWriter output = new PrintWriter(new FileWriter(parametersFile))) {
+            output.println("# Multi-ProbCut parameters fitted from " + fileName);
+            output.println("# stage depth slope intercept sigma (probe depth = depth - 2 * ((depth + 2) / 4))");
+            output.println("weights " + weights);
+            System.out.println("stage  depth  pairs  slope  intercept  sigma");
+            for(int stage = 0; stage < PatternEval.STAGES; stage++) {
+                for(int depth = MIN_DEPTH; depth <= MAX_DEPTH; depth++) {
+                    double[] sum = sums[stage][depth];
+                    double n = sum[0];
+                    double varianceX = n * sum[3] - sum[1] * sum[1];
+                    if(n < MIN_PAIRS || varianceX <= 0)
+                        continue;
+                    double a = (n * sum[4] - sum[1] * sum[2]) / varianceX;
+                    double b = (sum[2] - a * sum[1]) / n;
+                    //residual sum of squares from the sums: yy - 2a xy - 2b y + a^2 xx + 2ab x + n b^2
+                    double residual = sum[5] - 2 * a * sum[4] - 2 * b * sum[2] + a * a * sum[3] + 2 * a * b * sum[1] + n * b * b;
+                    double s = Math.sqrt(Math.max(0, residual) / (n - 2));
+                    if(a <= 0)
+                        continue;
+                    output.printf(Locale.ROOT, "%d %d %.4f %.1f %.1f%n", stage, depth, a, b, s);
+                    System.out.printf(Locale.ROOT, "%5d  %5d  %5d  %.3f  %9.1f  %5.1f%n", stage, depth, (int)n, a, b, s);
+                }
+            }
+        }
+        System.out.println("Wrote " + parametersFile);
+    }
+
+    /**
+     * Reads a command line option
+     * @param args Command line
+     * @param name Option name
+     * @param fallback Value if the option is absent
+     * @return Option value
+     */
+    private static String option(String[] args, String name, String fallback) {
+        for(int i = 0; i + 1 < args.length; i++) {
+            if(args[i].equals(name))
+                return args[i + 1];
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * @author Kenny Tram
+ * The referee's line protocol ("I B", "R B", moves such as "W c 4", a colour
+ * alone for a pass, "C" comment lines) over buffered NIO channels: standard
+ * input and output, a TCP socket or a pair of named pipes. Moves are parsed
+ * from and formatted into the buffers directly, so playing a move allocates
+ * nothing, and the time spent handling each move's I/O is recorded.
+ *   Engine side:  "stdio", "tcp:host:port" or "pipe:in,out"
+ *   Referee side: "spawn:command", "tcp:port" (listens) or "pipe:in,out"
+ * For pipes both sides are given the same two names (made with mkfifo); the
+ * engine reads the first and writes the second, the referee the other way round.
+ */
+package KKT_Othello;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class Protocol {
+    public static final int PASS = -1; //mailbox index of a pass, as Move.getIndex returns it
+    public static final int END = -2; //the input was closed
+    public static final int UNREADABLE = -3; //the line is not a move
+    public static final int BUFFER_SIZE = 8192;
+    public static final int MAX_LINE = 256; //longer lines are cut
+
+    private final ReadableByteChannel in;
+    private final WritableByteChannel out;
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+    private final byte[] line = new byte[MAX_LINE]; //last line read, without the line end
+    private int lineLength;
+    private Process process; //engine started by a spawn address; null otherwise
+    private OutputStream stream; //buffered stream under the output channel, flushed with it; null if none
+
+    private long movesRead;
+    private long readNanos; //time from a move's line being complete to it being parsed
+    private long movesWritten;
+    private long writeNanos; //time from formatting a move to the channel accepting it
+    private long maxWrite;
+
+    /**
+     * Creates a protocol over a pair of channels
+     * @param in Channel the other side's lines arrive on
+     * @param out Channel this side's lines are written to
+     */
+    public Protocol(ReadableByteChannel in, WritableByteChannel out) {
+        this.in = in;
+        this.out = out;
+        input.flip(); //empty, ready to be read from
+    }
+
+    /**
+     * Opens the engine's end of a connection
+     * @param address "stdio", "tcp:host:port" or "pipe:in,out"
+     * @return Protocol over the connection
+     * @throws IOException If the connection cannot be opened
+     */
+    public static Protocol connect(String address) throws IOException {
+        if(address.equals("stdio")) {
+            return new Protocol(new FileInputStream(FileDescriptor.in).getChannel(),
+                                new FileOutputStream(FileDescriptor.out).getChannel());
+        }
+        if(address.startsWith("tcp:")) {
+            int colon = address.lastIndexOf(':');
+            SocketChannel socket = SocketChannel.open(new InetSocketAddress(address.substring(4, colon),
+                                                                          Integer.parseInt(address.substring(colon + 1))));
+            socket.socket().setTcpNoDelay(true); //moves are tiny and must not wait for more data
+            return new Protocol(socket, socket);
+        }
+        if(address.startsWith("pipe:")) {
+            String[] names = address.substring(5).split(",");
+            FileChannel reader = FileChannel.open(Paths.get(names[0]), StandardOpenOption.READ); //blocks until the referee opens it
+            FileChannel writer = FileChannel.open(Paths.get(names[1]), StandardOpenOption.WRITE);
+            return new Protocol(reader, writer);
+        }
+        throw new IllegalArgumentException("Unknown address: " + address);
+    }
+
+    /**
+     * Opens the referee's end of a connection
+     * @param address "spawn:command", "tcp:port" or "pipe:in,out"
+     * @return Protocol over the connection
+     * @throws IOException If the connection cannot be opened
+     */
+    public static Protocol serve(String address) throws IOException {
+        if(address.startsWith("spawn:")) {
+            ProcessBuilder builder = new ProcessBuilder(address.substring(6).trim().split("\\s+"));
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            Process process = builder.start();
+            Protocol protocol = new Protocol(Channels.newChannel(process.getInputStream()),
+                                             Channels.newChannel(process.getOutputStream()));
+            protocol.process = process;
+            protocol.stream = process.getOutputStream(); //the process's stream is buffered
+            return protocol;
+        }
+        if(address.startsWith("tcp:")) {
+            try(ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(new InetSocketAddress(Integer.parseInt(address.substring(4))));
+                SocketChannel socket = server.accept();
+                socket.socket().setTcpNoDelay(true);
+                return new Protocol(socket, socket);
+            }
+        }
+        if(address.startsWith("pipe:")) {
+            String[] names = address.substring(5).split(",");
+            FileChannel writer = FileChannel.open(Paths.get(names[0]), StandardOpenOption.WRITE); //opened in the engine's order
+            FileChannel reader = FileChannel.open(Paths.get(names[1]), StandardOpenOption.READ);
+            return new Protocol(reader, writer);
+        }
+        throw new IllegalArgumentException("Unknown address: " + address);
+    }
+
+    /**
+     * Reads the next line into the line buffer
+     * @return False if the input was closed first
+     * @throws IOException If the channel fails
+     */
+    public boolean readLine() throws IOException {
+        lineLength = 0;
+        while(true) {
+            while(input.hasRemaining()) {
+                byte b = input.get();
+                if(b == '\n') {
+                    if(lineLength > 0 && line[lineLength - 1] == '\r')
+                        lineLength--;
+                    return true;
+                }
+                if(lineLength < MAX_LINE)
+                    line[lineLength++] = b;
+            }
+            input.clear();
+            int read = in.read(input);
+            input.flip();
+            if(read < 0)
+                return lineLength > 0; //a last line without a line end still counts
+        }
+    }
+
+    /**
+     * Returns the last line read
+     * @return Line text
+     */
+    public String lineText() {
+        return new String(line, 0, lineLength, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Tells whether the last line read is a comment
+     * @return True for a "C" line or a blank line
+     */
+    public boolean isComment() {
+        return lineLength == 0 || line[0] == 'C';
+    }
+
+    /**
+     * Reads lines until one that is not a comment and parses it as a move
+     * @return Mailbox index of the move, PASS, UNREADABLE or END
+     * @throws IOException If the channel fails
+     */
+    public int readMove() throws IOException {
+        do {
+            if(!readLine())
+                return END;
+        } while(isComment());
+        return parseLine();
+    }
+
+    /**
+     * Parses the last line read as a move
+     * @return Mailbox index of the move, PASS or UNREADABLE
+     */
+    public int parseLine() {
+        long start = System.nanoTime();
+        int index = parseMove(line, lineLength);
+        readNanos += System.nanoTime() - start;
+        movesRead++;
+        return index;
+    }
+
+    /**
+     * Parses a move line: a colour, then optionally a column letter and a row
+     * digit, separated by spaces (e.g. "W c 4"); a colour alone is a pass
+     * @param text Line bytes
+     * @param length Number of bytes in the line
+     * @return Mailbox index (row * 10 + column), PASS or UNREADABLE
+     */
+    public static int parseMove(byte[] text, int length) {
+        if(length == 0 || (text[0] != 'B' && text[0] != 'W'))
+            return UNREADABLE;
+
+        int col = 0;
+        int row = 0;
+        for(int i = 1; i < length; i++) {
+            byte b = text[i];
+            if(b >= 'a' && b <= 'h' && col == 0)
+                col = b - 'a' + 1;
+            else if(b >= '1' && b <= '8' && col != 0 && row == 0)
+                row = b - '0';
+            else if(b != ' ' && b != '\t')
+                return UNREADABLE;
+        }
+        if(col == 0 && row == 0)
+            return PASS;
+        return (row == 0) ? UNREADABLE : row * 10 + col;
+    }
+
+    /**
+     * Returns the colour letter of the last line read
+     * @return First byte of the line, or 0 if it was empty
+     */
+    public char lineColor() {
+        return (lineLength == 0) ? 0 : (char)line[0];
+    }
+
+    /**
+     * Writes a move line and sends it at once
+     * @param color 'B' or 'W'
+     * @param index Mailbox index of the move, or PASS
+     * @throws IOException If the channel fails
+     */
+    public void writeMove(char color, int index) throws IOException {
+        long start = System.nanoTime();
+        output.put((byte)color);
+        if(index >= 0) {
+            output.put((byte)' ');
+            output.put((byte)('a' + index % 10 - 1));
+            output.put((byte)' ');
+            output.put((byte)('0' + index / 10));
+        }
+        output.put((byte)'\n');
+        flush();
+
+        long used = System.nanoTime() - start;
+        writeNanos += used;
+        maxWrite = Math.max(maxWrite, used);
+        movesWritten++;
+    }
+
+    /**
+     * Writes a line and sends it at once
+     * @param text Line, without a line end; ASCII
+     * @throws IOException If the channel fails
+     */
+    public void writeLine(CharSequence text) throws IOException {
+        for(int i = 0; i < text.length(); i++) {
+            if(!output.hasRemaining())
+                flush();
+            output.put((byte)text.charAt(i));
+        }
+        if(!output.hasRemaining())
+            flush();
+        output.put((byte)'\n');
+        flush();
+    }
+
+    /**
+     * Sends everything written so far
+     * @throws IOException If the channel fails
+     */
+    public void flush() throws IOException {
+        output.flip();
+        while(output.hasRemaining())
+            out.write(output);
+        output.clear();
+        if(stream != null)
+            stream.flush();
+    }
+
+    /**
+     * Prints the I/O timings as a comment line
+     */
+    public void report() {
+        System.out.printf("C I/O: %d moves read, %.1f us to parse; %d moves written, %.1f us to send (max %.1f us)%n",
+                          movesRead, readNanos / 1e3 / Math.max(1, movesRead),
+                          movesWritten, writeNanos / 1e3 / Math.max(1, movesWritten), maxWrite / 1e3);
+    }
+
+    /**
+     * Closes both channels and waits for a spawned engine to exit
+     * @throws IOException If a channel cannot be closed
+     */
+    public void close() throws IOException {
+        out.close();
+        in.close();
+        if(process != null) {
+            try {
+                process.waitFor();
+            }
+            catch(InterruptedException e) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * @author Kenny Tram
+ * Stand-in for the tournament referee, so a whole game over the real protocol
+ * can be played offline: it assigns the engine its colour, plays the other side
+ * itself with a fixed-depth search, checks every move the engine sends and
+ * reports the result and the time the engine took to answer each move.
+ *   Referee <address> [-color B|W] [-depth D] [-random K] [-seed S] [-show]
+ * The address is as for Protocol.serve, e.g.
+ *   Referee "spawn:java -cp classes KKT_Othello.Game -time 30 -quiet"
+ *   Referee tcp:5000    (then Game -connect tcp:localhost:5000)
+ */
+package KKT_Othello;
+import java.io.IOException;
+import java.util.Random;
+
+public class Referee {
+    /**
+     * Plays one game against an engine
+     * @param args Address and options
+     * @throws IOException If the connection fails
+     */
+    public static void main(String[] args) throws IOException {
+        if(args.length < 1) {
+            System.out.println("Usage: Referee <address> [-color B|W] [-depth D] [-random K] [-seed S] [-show]");
+            return;
+        }
+        char engineColor = option(args, "-color", "B").charAt(0);
+        int depth = Integer.parseInt(option(args, "-depth", "4"));
+        int randomMoves = Integer.parseInt(option(args, "-random", "0")); //random plies the referee's side opens with
+        Random random = new Random(Long.parseLong(option(args, "-seed", "" + System.nanoTime())));
+        boolean show = false; //echo the engine's comment lines
+        for(String arg : args) {
+            if(arg.equals("-show"))
+                show = true;
+        }
+
+        Protocol io = Protocol.serve(args[0]);
+        Search search = new Search(new TranspositionTable(16));
+        io.writeLine("I " + engineColor);
+        long sent = System.nanoTime();
+        if(!readReply(io, show) || io.lineText().charAt(0) != 'R') {
+            System.out.println("Engine did not accept its colour: " + io.lineText());
+            io.close();
+            return;
+        }
+
+        char refereeColor = (engineColor == 'B') ? 'W' : 'B';
+        long player = 0x0000000810000000L; //black to move
+        long opponent = 0x0000001008000000L;
+        boolean engineToMove = engineColor == 'B';
+        int refereeMoves = 0;
+        int engineMoves = 0;
+        long totalReply = 0;
+        long maxReply = 0;
+        String failure = null;
+
+        while(true) {
+            long moves = BitBoard.legalMoves(player, opponent);
+            if(moves == 0 && BitBoard.legalMoves(opponent, player) == 0)
+                break; //the engine stops here too, with neither side able to move
+
+            int move;
+            if(engineToMove) {
+                int index = readReply(io, show) ? io.parseLine() : Protocol.END;
+                long reply = System.nanoTime() - sent;
+                totalReply += reply;
+                maxReply = Math.max(maxReply, reply);
+                engineMoves++;
+                if(index == Protocol.END) {
+                    failure = "engine closed the connection";
+                    break;
+                }
+                if(index == Protocol.UNREADABLE || io.lineColor() != engineColor) {
+                    failure = "unreadable move \"" + io.lineText() + "\"";
+                    break;
+                }
+                move = (index == Protocol.PASS) ? Search.PASS : BitBoard.toBit(index);
+                if((move == Search.PASS) != (moves == 0) || (move != Search.PASS && (moves & (1L << move)) == 0)) {
+                    failure = "illegal move \"" + io.lineText() + "\"";
+                    break;
+                }
+                System.out.println(io.lineText() + "   (" + reply / 1000000 + " ms)");
+            }
+            else {
+                if(moves == 0) {
+                    move = Search.PASS;
+                }
+                else if(refereeMoves < randomMoves) {
+                    int pick = random.nextInt(BitBoard.count(moves));
+                    for(int i = 0; i < pick; i++)
+                        moves &= moves - 1;
+                    move = Long.numberOfTrailingZeros(moves);
+                }
+                else {
+                    search.setPosition(player, opponent);
+                    move = search.bestMove(depth);
+                }
+                refereeMoves++;
+                io.writeMove(refereeColor, (move == Search.PASS) ? Protocol.PASS : BitBoard.toIndex(move));
+                sent = System.nanoTime();
+                System.out.println(refereeColor + ((move == Search.PASS) ? "" : " " + squareText(move)));
+            }
+
+            if(move != Search.PASS) {
+                long flipped = BitBoard.flips(player, opponent, move);
+                player |= flipped | (1L << move);
+                opponent &= ~flipped;
+            }
+            long temp = player;
+            player = opponent;
+            opponent = temp;
+            engineToMove = !engineToMove;
+        }
+
+        if(failure != null) {
+            System.out.println("Engine forfeits: " + failure);
+        }
+        else {
+            int margin = BitBoard.count(player) - BitBoard.count(opponent); //side to move at the end
+            if(!engineToMove)
+                margin = -margin;
+            System.out.println("Game over: engine " + ((margin > 0) ? "wins" : (margin < 0) ? "loses" : "draws") + " by " + Math.abs(margin));
+        }
+        System.out.printf("Engine replies: %d, mean %.3f ms, max %.3f ms (thinking included)%n",
+                          engineMoves, totalReply / 1e6 / Math.max(1, engineMoves), maxReply / 1e6);
+        io.report();
+        io.close();
+    }
+
+    /**
+     * Reads the engine's next line that is not a comment
+     * @param io Connection to the engine
+     * @param show True to print the comment lines skipped
+     * @return False if the connection was closed
+     * @throws IOException If the connection fails
+     */
+    private static boolean readReply(Protocol io, boolean show) throws IOException {
+        while(io.readLine()) {
+            if(!io.isComment())
+                return true;
+            if(show)
+                System.out.println(io.lineText());
+        }
+        return false;
+    }
+
+    /**
+     * Names a square as the protocol writes it
+     * @param bit Square (bit number)
+     * @return Column letter and row digit separated by a space, e.g. "c 4"
+     */
+    private static String squareText(int bit) {
+        return (char)('a' + bit % 8) + " " + (bit / 8 + 1);
+    }
+
+    /**
+     * Reads a command line option
+     * @param args Command line
+     * @param name Option name
+     * @param fallback Value if the option is absent
+     * @return Option value
+     */
+    private static String option(String[] args, String name, String fallback) {
+        for(int i = 0; i + 1 < args.length; i++) {
+            if(args[i].equals(name))
+                return args[i + 1];
+        }
+        return fallback;
+    }
+}
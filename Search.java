@@ -0,0 +1,956 @@
+/**
+ * @author Kenny Tram
+ * In-place negamax search over bitboards; moves are made and undone on a
+ * single position so the search allocates nothing per node
+ */
+package KKT_Othello;
+import java.util.Arrays;
+
+public class Search {
+    public static final int MAX_PLY = 128; //60 moves plus room for passes
+    public static final int MAX_MOVES = 64; //room reserved per ply on the move stack
+    public static final int INFINITY = 1000000;
+    public static final int WIN = 100000; //score of a won game before the disc margin is added
+    public static final int PASS = 64; //move number used for a pass
+
+    public static final int ASPIRATION_WINDOW = 200; //half-width of the first window around the previous score
+    public static final int ROOT_ORDER_DEPTH = 2; //depth of the shallow search that first orders the root moves
+    public static boolean usePatterns = false; //set once fitted weights are loaded; false scores leaves with evaluate (mobility, corners, discs)
+    public static boolean useOrdering = true; //false leaves only the transposition table move ahead of scan order
+    public static boolean useSymmetry = true; //share table entries between symmetric positions early in the game
+    public static int symmetryDiscs = 20; //positions with at most this many discs are stored in canonical orientation
+    public static boolean reuseTree = true; //false orders the root afresh even when it was searched last (the caller clears the table)
+
+    private static final long CORNERS = 0x8100000000000081L;
+
+    /**
+     * Static positional value of each square (a1 - h8), used to order moves
+     * that have no killer or history information yet
+     */
+    private static final int SQUARE_WEIGHTS[] = {100, -20, 10,  5,  5, 10, -20, 100,
+                                                 -20, -50, -2, -2, -2, -2, -50, -20,
+                                                  10,  -2,  1,  1,  1,  1,  -2,  10,
+                                                   5,  -2,  1,  0,  0,  1,  -2,   5,
+                                                   5,  -2,  1,  0,  0,  1,  -2,   5,
+                                                  10,  -2,  1,  1,  1,  1,  -2,  10,
+                                                 -20, -50, -2, -2, -2, -2, -50, -20,
+                                                 100, -20, 10,  5,  5, 10, -20, 100};
+
+    private long player; //bitboard of the side to move
+    private long opponent; //bitboard of the side that just moved
+    private int ply;
+    private long hash; //Zobrist hash of the position, including the side to move
+    private int rootOwner; //Zobrist owner of the root side to move: 0 normally, 1 when searching on the opponent's turn
+    private TranspositionTable table;
+    private PatternEval patterns = new PatternEval(); //pattern indices, with the root side to move as owner 0
+
+    private long nodes; //positions visited by the current search
+    private long leafEvals; //leaves scored by evaluateLeaf
+    private long expanded; //nodes whose moves were searched
+    private long cutoffs; //expanded nodes that failed high
+    private long firstMoveCutoffs; //fail highs caused by the first move searched
+    private long probCuts; //nodes cut by a ProbCut probe
+    private long tableProbes; //transposition table lookups by the current search
+    private long tableHits; //lookups that found an entry
+    private long tableStores; //entries written to the table
+    private long startTime; //System.nanoTime() when the current search started
+    private long[] depthTimes = new long[65]; //nanoseconds since the start when each iteration completed
+    private int[] depthScores = new int[65]; //root score of each completed iteration
+    private long deadline; //System.nanoTime() after which a timed search stops
+    private boolean stopped; //set once the deadline passes; the running iteration is discarded
+    private volatile boolean stopRequested; //set by another thread to end the search early
+    private int rootRotation; //helper threads search the root moves in a rotated order
+    private int completedDepth; //depth of the last fully searched iteration
+    private int bestScore; //score of the best move found by the last completed iteration
+    private int rootBest; //best move found by the last root search
+
+    private long[] flipStack = new long[MAX_PLY]; //discs flipped at each ply, used to undo moves
+    private int[] movePlayed = new int[MAX_PLY]; //square played at each ply
+    private int[] moveStack = new int[MAX_PLY * MAX_MOVES]; //generated moves, MAX_MOVES per ply
+    private long[] hashStack = new long[MAX_PLY]; //hash before each ply's move, used to undo moves
+    private int[] moveScores = new int[MAX_PLY * MAX_MOVES]; //ordering score of each move on the move stack
+
+    private int[][] killers = new int[MAX_PLY][2]; //last two moves per ply that caused a beta cutoff
+    private int[] history = new int[64]; //cutoffs caused by each square, weighted by depth squared
+
+    private int[] rootMoves = new int[MAX_MOVES]; //root moves, best first after each iteration
+    private int[] rootScores = new int[MAX_MOVES]; //score of each root move in the last iteration
+    private int rootCount;
+    private long orderedRoot; //hash of the root whose moves rootMoves holds in search order; 0 if none
+    private long[] depthNodes = new long[65]; //nodes searched when each iteration completed
+    private int[] selectivity = ProbCut.selectivity; //ProbCut level of each stage; shares the global levels unless set
+
+    /**
+     * Creates a search with its own transposition table of the default size
+     */
+    public Search() {
+        this(new TranspositionTable(TranspositionTable.DEFAULT_SIZE_MB));
+    }
+
+    /**
+     * Creates a search that stores results in the given transposition table
+     * @param table Transposition table to use
+     */
+    public Search(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Loads a position into the search
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     */
+    public void setPosition(long toMove, long other) {
+        setPosition(toMove, other, Zobrist.hash(toMove, other));
+    }
+
+    /**
+     * Loads a position into the search, reusing a hash kept up to date by the caller
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the discs with toMove as owner 0 (see Zobrist.hash)
+     */
+    public void setPosition(long toMove, long other, long discHash) {
+        setPosition(toMove, other, discHash, 0);
+    }
+
+    /**
+     * Loads a position whose hash may have the other side as owner 0. Searching the
+     * opponent's turn with owner 1 keys every position with the engine as owner 0
+     * and SIDE toggled when the opponent is to move, exactly as the engine's own
+     * searches key them, so they share table entries.
+     * @param toMove Bitboard of the side to move
+     * @param other Bitboard of the other side
+     * @param discHash Zobrist hash of the position, including SIDE if owner is 1
+     * @param owner Zobrist owner of toMove's discs in discHash
+     */
+    public void setPosition(long toMove, long other, long discHash, int owner) {
+        player = toMove;
+        opponent = other;
+        hash = discHash;
+        rootOwner = owner;
+        ply = 0;
+        patterns.setPosition(toMove, other);
+    }
+
+    /**
+     * Plays a move in place; the flipped discs are saved so the move can be undone
+     * @param bit Square being played, or PASS
+     */
+    public void makeMove(int bit) {
+        long flipped = 0;
+        int owner = ply & 1; //the root side to move owns pattern keys 0
+
+        hashStack[ply] = hash;
+        if(bit != PASS) {
+            flipped = BitBoard.flips(player, opponent, bit);
+            player |= flipped | (1L << bit);
+            opponent &= ~flipped;
+
+            hash ^= Zobrist.KEYS[owner ^ rootOwner][bit];
+            long squares = flipped;
+            while(squares != 0) {
+                int square = Long.numberOfTrailingZeros(squares);
+                hash ^= Zobrist.KEYS[0][square] ^ Zobrist.KEYS[1][square];
+                squares &= squares - 1;
+            }
+            patterns.place(bit, flipped, owner);
+        }
+        hash ^= Zobrist.SIDE;
+        flipStack[ply] = flipped;
+        movePlayed[ply] = bit;
+        ply++;
+
+        long temp = player; //the other side is now to move
+        player = opponent;
+        opponent = temp;
+    }
+
+    /**
+     * Takes back the last move made with makeMove
+     */
+    public void undoMove() {
+        ply--;
+        long temp = player;
+        player = opponent;
+        opponent = temp;
+
+        hash = hashStack[ply];
+        int bit = movePlayed[ply];
+        if(bit != PASS) {
+            long flipped = flipStack[ply];
+            player &= ~(flipped | (1L << bit));
+            opponent |= flipped;
+            patterns.remove(bit, flipped, ply & 1);
+        }
+    }
+
+    /**
+     * Searches the loaded position to a fixed depth
+     * @param depth Number of plies to search
+     * @return Best square to play, or PASS if no move is available
+     */
+    public int bestMove(int depth) {
+        deadline = Long.MAX_VALUE;
+        stopped = false;
+        resetCounters();
+        completedDepth = 0;
+        if(BitBoard.legalMoves(player, opponent) == 0)
+            return PASS;
+
+        prepareRoot();
+        int move = aspirationSearch(depth);
+        completedDepth = depth;
+        depthNodes[depth] = nodes;
+        depthTimes[depth] = System.nanoTime() - startTime;
+        orderedRoot = hash;
+        return move;
+    }
+
+    /**
+     * Searches the loaded position one ply deeper at a time until the time budget is
+     * nearly used up, returning the best move of the last completed iteration
+     * @param timeLimit Nanoseconds available for the move
+     * @return Best square to play, or PASS if no move is available
+     */
+    public int iterativeDeepening(long timeLimit) {
+        return iterativeDeepening(timeLimit, 1, 64);
+    }
+
+    /**
+     * Searches the loaded position one ply deeper at a time until the time budget is
+     * nearly used up, the maximum depth is reached or another thread calls stop
+     * @param timeLimit Nanoseconds available for the move
+     * @param firstDepth Depth of the first iteration
+     * @param maxDepth Depth of the last iteration
+     * @return Best square to play, or PASS if no move is available
+     */
+    public int iterativeDeepening(long timeLimit, int firstDepth, int maxDepth) {
+        return iterativeDeepening(timeLimit / 2, timeLimit, firstDepth, maxDepth);
+    }
+
+    /**
+     * Searches the loaded position one ply deeper at a time. No iteration is started
+     * after the soft limit, which is stretched (up to TimeManager.MAX_EXTENSION times)
+     * while the best move keeps changing or the score falls; the running iteration is
+     * abandoned at the hard limit. A proven win or loss ends the search at once.
+     * @param softLimit Nanoseconds after which no new iteration is started
+     * @param hardLimit Nanoseconds after which the search stops
+     * @param firstDepth Depth of the first iteration
+     * @param maxDepth Depth of the last iteration
+     * @return Best square to play, or PASS if no move is available
+     */
+    public int iterativeDeepening(long softLimit, long hardLimit, int firstDepth, int maxDepth) {
+        long moves = BitBoard.legalMoves(player, opponent);
+        int lastDepth = Math.min(maxDepth, 64 - BitBoard.count(player | opponent));
+
+        resetCounters();
+        long start = startTime;
+        stopped = false;
+        completedDepth = 0;
+        if(moves == 0)
+            return PASS;
+
+        deadline = start + hardLimit; //if even the first iteration is cut short, the first root move is played
+        prepareRoot();
+        int bestMove = rootMoves[0];
+        double extension = 1;
+        int firstIteration = Math.min(firstDepth, lastDepth);
+        for(int depth = firstIteration; depth <= lastDepth; depth++) {
+            int move = aspirationSearch(depth);
+            if(stopped)
+                break;
+            if(depth > firstIteration && move != bestMove) //unsettled; give it longer
+                extension *= TimeManager.MOVE_CHANGE_EXTENSION;
+            if(depth > firstIteration + 1 && bestScore < depthScores[depth - 2] - TimeManager.SCORE_DROP)
+                extension *= TimeManager.SCORE_DROP_EXTENSION; //compared two plies back, as odd and even depths differ
+            extension = Math.min(extension, TimeManager.MAX_EXTENSION);
+            bestMove = move;
+            completedDepth = depth;
+            depthNodes[depth] = nodes;
+            depthScores[depth] = bestScore;
+            long elapsed = System.nanoTime() - start;
+            depthTimes[depth] = elapsed;
+            if(stopRequested || Math.abs(bestScore) >= WIN)
+                break;
+
+            if(elapsed > softLimit * extension) //the next iteration would not finish in time
+                break;
+        }
+        orderedRoot = (completedDepth > 0) ? hash : 0; //a root ordering cut short is not worth keeping
+
+        return bestMove;
+    }
+
+    /**
+     * Searches the root inside a window around the previous iteration's score,
+     * widening the window and searching again whenever the score falls outside it
+     * @param depth Number of plies to search
+     * @return Best square to play; meaningless if the search was stopped
+     */
+    private int aspirationSearch(int depth) {
+        int delta = ASPIRATION_WINDOW;
+        int alpha = -INFINITY;
+        int beta = INFINITY;
+        if(completedDepth > 0 && Math.abs(bestScore) < WIN) {
+            alpha = bestScore - delta;
+            beta = bestScore + delta;
+        }
+
+        while(true) {
+            int score = searchRoot(depth, alpha, beta);
+            if(stopped)
+                return rootBest;
+
+            if(score <= alpha && alpha > -INFINITY)
+                alpha = (delta >= WIN) ? -INFINITY : score - delta;
+            else if(score >= beta && beta < INFINITY)
+                beta = (delta >= WIN) ? INFINITY : score + delta;
+            else {
+                bestScore = score;
+                int symmetry = tableSymmetry();
+                table.store(tableKey(symmetry), depth, TranspositionTable.EXACT, score, toTable(rootBest, symmetry));
+                tableStores++;
+                sortRoot(rootBest);
+                return rootBest;
+            }
+            delta *= 4;
+        }
+    }
+
+    /**
+     * Searches every root move with principal variation search: the first move with
+     * the full window, the rest with a null window that is widened only if they beat it
+     * @param depth Number of plies to search
+     * @param alpha Lower bound of the window
+     * @param beta Upper bound of the window
+     * @return Score of the best move (fail-soft); the move itself is left in rootBest
+     */
+    private int searchRoot(int depth, int alpha, int beta) {
+        int best = -INFINITY;
+        rootBest = rootMoves[0];
+
+        for(int k = 0; k < rootCount; k++) {
+            int i = (k == 0) ? 0 : 1 + (k - 1 + rootRotation) % (rootCount - 1); //helpers rotate all but the first move
+            int move = rootMoves[i];
+            makeMove(move);
+            int score;
+            if(k == 0) {
+                score = -negamax(depth - 1, -beta, -alpha, false);
+            }
+            else {
+                score = -negamax(depth - 1, -alpha - 1, -alpha, false);
+                if(score > alpha && score < beta)
+                    score = -negamax(depth - 1, -beta, -alpha, false);
+            }
+            undoMove();
+            if(stopped)
+                break;
+            rootScores[i] = score;
+            if(score > best) {
+                best = score;
+                rootBest = move;
+                if(score > alpha) {
+                    alpha = score;
+                    if(alpha >= beta)
+                        break;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Plain minimax (negamax without pruning, ordering or the transposition table)
+     * of the loaded position; a reference for checking the real search
+     * @param depth Number of plies to search
+     * @return Score of the position from the side to move's perspective
+     */
+    public int minimax(int depth) {
+        nodes++;
+        if(depth <= 0)
+            return evaluateLeaf();
+
+        long moves = BitBoard.legalMoves(player, opponent);
+        if(moves == 0) {
+            if(ply > 0 && movePlayed[ply - 1] == PASS)
+                return finalScore(player, opponent);
+            makeMove(PASS);
+            int score = -minimax(depth - 1);
+            undoMove();
+            return score;
+        }
+
+        int best = -INFINITY;
+        while(moves != 0) {
+            makeMove(Long.numberOfTrailingZeros(moves));
+            best = Math.max(best, -minimax(depth - 1));
+            undoMove();
+            moves &= moves - 1;
+        }
+        return best;
+    }
+
+    /**
+     * Clears the node counter, e.g. before calling minimax
+     */
+    public void resetNodes() {
+        nodes = 0;
+    }
+
+    /**
+     * Clears every counter and restarts the search clock
+     */
+    private void resetCounters() {
+        nodes = 0;
+        leafEvals = 0;
+        expanded = 0;
+        cutoffs = 0;
+        firstMoveCutoffs = 0;
+        probCuts = 0;
+        tableProbes = 0;
+        tableHits = 0;
+        tableStores = 0;
+        Arrays.fill(depthNodes, 0);
+        Arrays.fill(depthTimes, 0);
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Adds this search's counters from the last search to a statistics record
+     * @param stats Record being filled, possibly with the counters of other threads
+     * @param main True for the thread whose result is played; its depth, score and
+     *             per-iteration nodes and times are recorded as well
+     */
+    public void addStats(SearchStats stats, boolean main) {
+        stats.nodes += nodes;
+        stats.leafEvals += leafEvals;
+        stats.expanded += expanded;
+        stats.cutoffs += cutoffs;
+        stats.firstMoveCutoffs += firstMoveCutoffs;
+        stats.probCuts += probCuts;
+        stats.tableProbes += tableProbes;
+        stats.tableHits += tableHits;
+        stats.tableStores += tableStores;
+        stats.threads++;
+
+        if(main) {
+            stats.depth = completedDepth;
+            stats.score = bestScore;
+            for(int depth = 1; depth <= completedDepth; depth++) {
+                stats.depthNodes[depth] = depthNodes[depth];
+                stats.depthTimes[depth] = depthTimes[depth];
+            }
+        }
+    }
+
+    /**
+     * Generates the root moves and orders them with a shallow search; also clears
+     * the killer and history tables left over from the previous search. Those are
+     * cleared rather than aged: carried over to the next move, they cost more
+     * nodes than they saved. If the root is the one searched last (after
+     * pondering, say) its moves keep the order the last iteration left them in.
+     */
+    private void prepareRoot() {
+        for(int i = 0; i < MAX_PLY; i++) {
+            killers[i][0] = TranspositionTable.NO_MOVE;
+            killers[i][1] = TranspositionTable.NO_MOVE;
+        }
+        Arrays.fill(history, 0);
+
+        int symmetry = tableSymmetry();
+        long entry = table.probe(tableKey(symmetry));
+        int ttMove = (entry == TranspositionTable.MISS) ? TranspositionTable.NO_MOVE
+                                                        : fromTable(TranspositionTable.moveOf(entry), symmetry);
+        if(reuseTree && hash == orderedRoot && rootCount > 0) {
+            sortRoot(ttMove);
+            return;
+        }
+
+        rootCount = 0;
+        long moves = BitBoard.legalMoves(player, opponent);
+        while(moves != 0) {
+            rootMoves[rootCount++] = Long.numberOfTrailingZeros(moves);
+            moves &= moves - 1;
+        }
+
+        if(useSymmetry && BitBoard.count(player | opponent) <= symmetryDiscs)
+            removeSymmetricMoves();
+
+        if(useOrdering && rootCount > 1) {
+            for(int i = 0; i < rootCount; i++) {
+                makeMove(rootMoves[i]);
+                rootScores[i] = -negamax(ROOT_ORDER_DEPTH - 1, -INFINITY, INFINITY, false);
+                undoMove();
+            }
+        }
+        sortRoot(ttMove);
+    }
+
+    /**
+     * Drops root moves that lead to the same position as an earlier move up to a
+     * symmetry of the root position (the start position, for instance, has 4
+     * equivalent moves); only one move of each such set is searched
+     */
+    private void removeSymmetricMoves() {
+        int symmetries = BitBoard.symmetries(player, opponent);
+        if(symmetries == 1)
+            return;
+
+        long kept = 0;
+        int count = 0;
+        for(int i = 0; i < rootCount; i++) {
+            int move = rootMoves[i];
+            boolean duplicate = false;
+            for(int symmetry = 1; symmetry < 8 && !duplicate; symmetry++) {
+                if((symmetries & (1 << symmetry)) != 0 && (kept & (1L << BitBoard.transformSquare(move, symmetry))) != 0)
+                    duplicate = true;
+            }
+            if(!duplicate) {
+                kept |= 1L << move;
+                rootMoves[count++] = move;
+            }
+        }
+        rootCount = count;
+    }
+
+    /**
+     * Chooses how the current position is keyed in the transposition table
+     * @return Symmetry that makes the position canonical, or -1 to key it by its own hash
+     */
+    private int tableSymmetry() {
+        if(!useSymmetry || BitBoard.count(player | opponent) > symmetryDiscs)
+            return -1;
+        return BitBoard.canonicalSymmetry(player, opponent);
+    }
+
+    /**
+     * Returns the transposition table key of the current position; canonical keys
+     * hash the canonical discs with the side to move as owner 0, so every symmetric
+     * image of a position (reached at either parity) shares one entry
+     * @param symmetry Result of tableSymmetry
+     * @return Table key
+     */
+    private long tableKey(int symmetry) {
+        if(symmetry < 0)
+            return hash;
+        return Zobrist.hash(BitBoard.transform(player, symmetry), BitBoard.transform(opponent, symmetry));
+    }
+
+    /**
+     * Converts a move into the orientation it is stored in
+     * @param move Square, or a value above 63 (PASS, NO_MOVE) that is kept as is
+     * @param symmetry Result of tableSymmetry
+     * @return Move as stored in the table
+     */
+    private static int toTable(int move, int symmetry) {
+        return (symmetry < 0 || move > 63) ? move : BitBoard.transformSquare(move, symmetry);
+    }
+
+    /**
+     * Converts a stored move back into the current position's orientation
+     * @param move Move as stored in the table
+     * @param symmetry Result of tableSymmetry
+     * @return Square, or the stored value if it is not a square
+     */
+    private static int fromTable(int move, int symmetry) {
+        return (symmetry < 0 || move > 63) ? move : BitBoard.untransformSquare(move, symmetry);
+    }
+
+    /**
+     * Sorts the root moves by their last scores (when ordering is on), then puts the given move first
+     * @param first Move to search first, normally the best move so far
+     */
+    private void sortRoot(int first) {
+        for(int i = 1; useOrdering && i < rootCount; i++) { //insertion sort, highest score first
+            int move = rootMoves[i];
+            int score = rootScores[i];
+            int j = i;
+            while(j > 0 && rootScores[j - 1] < score) {
+                rootMoves[j] = rootMoves[j - 1];
+                rootScores[j] = rootScores[j - 1];
+                j--;
+            }
+            rootMoves[j] = move;
+            rootScores[j] = score;
+        }
+
+        for(int i = 1; i < rootCount; i++) {
+            if(rootMoves[i] == first) {
+                int score = rootScores[i];
+                for(int j = i; j > 0; j--) {
+                    rootMoves[j] = rootMoves[j - 1];
+                    rootScores[j] = rootScores[j - 1];
+                }
+                rootMoves[0] = first;
+                rootScores[0] = score;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the depth of the last completed search
+     * @return Depth in plies
+     */
+    public int getDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * Returns the score of the move chosen by the last completed search
+     * @return Score from the side to move's perspective
+     */
+    public int getScore() {
+        return bestScore;
+    }
+
+    /**
+     * Returns the number of positions visited by the last search
+     * @return Node count
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Returns the transposition table lookups made by the last search
+     * @return Probe count
+     */
+    public long getTableProbes() {
+        return tableProbes;
+    }
+
+    /**
+     * Returns the transposition table lookups of the last search that found an entry
+     * @return Hit count
+     */
+    public long getTableHits() {
+        return tableHits;
+    }
+
+    /**
+     * Returns the nodes searched by the last iterative deepening run up to the end of an iteration
+     * @param depth Completed iteration
+     * @return Cumulative node count when that iteration completed
+     */
+    public long getNodesToDepth(int depth) {
+        return depthNodes[depth];
+    }
+
+    /**
+     * Negamax alpha beta search of the current position
+     * @param depth Remaining plies to search
+     * @param alpha Lower bound for the side to move
+     * @param beta Upper bound for the side to move
+     * @param passed True if the previous move was a pass
+     * @return Score of the position from the side to move's perspective
+     */
+    private int negamax(int depth, int alpha, int beta, boolean passed) {
+        nodes++;
+        if((nodes & 1023) == 0 && (stopRequested || System.nanoTime() > deadline))
+            stopped = true;
+        if(stopped)
+            return 0;
+
+        if(depth <= 0)
+            return evaluateLeaf();
+
+        int alphaOriginal = alpha;
+        int ttMove = TranspositionTable.NO_MOVE;
+        int symmetry = tableSymmetry();
+        long key = tableKey(symmetry);
+        long entry = table.probe(key);
+        tableProbes++;
+        if(entry != TranspositionTable.MISS) {
+            tableHits++;
+            ttMove = fromTable(TranspositionTable.moveOf(entry), symmetry);
+            if(TranspositionTable.depthOf(entry) >= depth) {
+                int score = TranspositionTable.scoreOf(entry);
+                int bound = TranspositionTable.boundOf(entry);
+                if(bound == TranspositionTable.EXACT
+                   || (bound == TranspositionTable.LOWER && score >= beta)
+                   || (bound == TranspositionTable.UPPER && score <= alpha))
+                    return score;
+            }
+        }
+
+        long moves = BitBoard.legalMoves(player, opponent);
+        if(moves == 0) {
+            if(passed)
+                return finalScore(player, opponent); //neither side can move
+            makeMove(PASS);
+            int score = -negamax(depth - 1, -beta, -alpha, true);
+            undoMove();
+            return score;
+        }
+
+        if(beta == alpha + 1 && Math.abs(beta) < WIN) { //null-window nodes only, so the principal variation is searched in full
+            int stage = PatternEval.stage(BitBoard.count(player | opponent));
+            int level = selectivity[stage];
+            if(ProbCut.applies(level, stage, depth)) {
+                int probe = ProbCut.probeDepth(depth);
+                int bound = ProbCut.highBound(level, stage, depth, beta);
+                if(bound < WIN && negamax(probe, bound - 1, bound, false) >= bound) {
+                    probCuts++;
+                    return beta;
+                }
+                bound = ProbCut.lowBound(level, stage, depth, alpha);
+                if(bound > -WIN && negamax(probe, bound, bound + 1, false) <= bound) {
+                    probCuts++;
+                    return alpha;
+                }
+                if(stopped)
+                    return 0;
+            }
+        }
+
+        int base = ply * MAX_MOVES;
+        int count = generate(moves, base);
+        scoreMoves(ttMove, base, count);
+        expanded++;
+        int best = -INFINITY;
+        int bestMove = moveStack[base];
+
+        for(int i = base; i < base + count; i++) {
+            pickBest(i, base + count);
+            int move = moveStack[i];
+            makeMove(move);
+            int score;
+            if(i == base) {
+                score = -negamax(depth - 1, -beta, -alpha, false);
+            }
+            else { //null-window scout; only a move that beats alpha is searched again with the full window
+                score = -negamax(depth - 1, -alpha - 1, -alpha, false);
+                if(score > alpha && score < beta)
+                    score = -negamax(depth - 1, -beta, -alpha, false);
+            }
+            undoMove();
+            if(score > best) {
+                best = score;
+                bestMove = move;
+                if(score > alpha) {
+                    alpha = score;
+                    if(alpha >= beta) {
+                        recordCutoff(move, ttMove, depth);
+                        cutoffs++;
+                        if(i == base)
+                            firstMoveCutoffs++;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if(stopped)
+            return 0;
+
+        int bound;
+        if(best <= alphaOriginal)
+            bound = TranspositionTable.UPPER;
+        else if(best >= beta)
+            bound = TranspositionTable.LOWER;
+        else
+            bound = TranspositionTable.EXACT;
+        table.store(key, depth, bound, best, toTable(bestMove, symmetry));
+        tableStores++;
+
+        return best;
+    }
+
+    /**
+     * Gives each move on the move stack an ordering score: transposition table move,
+     * then killer moves, then history plus the static square weight
+     * @param ttMove Best move stored in the transposition table, or NO_MOVE
+     * @param base First slot of the list
+     * @param count Length of the list
+     */
+    private void scoreMoves(int ttMove, int base, int count) {
+        int[] killer = killers[ply];
+
+        for(int i = base; i < base + count; i++) {
+            int move = moveStack[i];
+            if(move == ttMove)
+                moveScores[i] = 1 << 30;
+            else if(!useOrdering)
+                moveScores[i] = 0;
+            else if(move == killer[0])
+                moveScores[i] = 1 << 29;
+            else if(move == killer[1])
+                moveScores[i] = 1 << 28;
+            else
+                moveScores[i] = history[move] + SQUARE_WEIGHTS[move] * 64;
+        }
+    }
+
+    /**
+     * Swaps the highest scoring remaining move into the given slot (selection sort,
+     * one step at a time so a cutoff skips sorting the rest)
+     * @param slot Slot to fill
+     * @param end One past the last slot of the list
+     */
+    private void pickBest(int slot, int end) {
+        int best = slot;
+        for(int i = slot + 1; i < end; i++) {
+            if(moveScores[i] > moveScores[best])
+                best = i;
+        }
+
+        int move = moveStack[best];
+        int score = moveScores[best];
+        moveStack[best] = moveStack[slot];
+        moveScores[best] = moveScores[slot];
+        moveStack[slot] = move;
+        moveScores[slot] = score;
+    }
+
+    /**
+     * Updates the killer and history tables after a beta cutoff
+     * @param move Move that caused the cutoff
+     * @param ttMove Transposition table move, which is already searched first
+     * @param depth Remaining depth at the cutoff
+     */
+    private void recordCutoff(int move, int ttMove, int depth) {
+        if(move != ttMove && move != killers[ply][0]) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+
+        history[move] += depth * depth;
+        if(history[move] > (1 << 24)) { //keep history below the killer scores
+            for(int i = 0; i < 64; i++)
+                history[i] /= 2;
+        }
+    }
+
+    /**
+     * Follows the transposition table moves from the loaded position to rebuild
+     * the expected line of play; stops at a missing or illegal move
+     * @param line Receives the moves (squares, or PASS), root move first
+     * @return Number of moves written
+     */
+    public int getPrincipalVariation(int[] line) {
+        int length = 0;
+        while(length < line.length && length < completedDepth) {
+            int symmetry = tableSymmetry();
+            long entry = table.probe(tableKey(symmetry));
+            if(entry == TranspositionTable.MISS || TranspositionTable.moveOf(entry) == TranspositionTable.NO_MOVE)
+                break; //MISS would decode as square 0
+            int move = fromTable(TranspositionTable.moveOf(entry), symmetry);
+            long moves = BitBoard.legalMoves(player, opponent);
+            if(move == PASS ? moves != 0 || BitBoard.legalMoves(opponent, player) == 0
+                            : move > PASS || (moves & (1L << move)) == 0)
+                break;
+            line[length++] = move;
+            makeMove(move);
+        }
+        for(int i = 0; i < length; i++)
+            undoMove();
+        return length;
+    }
+
+    /**
+     * Asks a running search, possibly on another thread, to stop as soon as possible
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Gives this search its own ProbCut levels instead of the global ones
+     * @param levels Selectivity level of each game stage
+     */
+    public void setSelectivity(int[] levels) {
+        selectivity = levels.clone();
+    }
+
+    /**
+     * Prepares the search to run as a Lazy SMP helper or as the main thread
+     * @param rotation Places to rotate the root moves by; 0 for the main thread
+     */
+    public void prepare(int rotation) {
+        rootRotation = rotation;
+        stopRequested = false;
+    }
+
+    /**
+     * Returns the transposition table used by this search
+     * @return Transposition table
+     */
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Writes the squares of a move bitboard onto the move stack
+     * @param moves Bitboard of legal moves
+     * @param base First free slot on the move stack
+     * @return Number of moves written
+     */
+    private int generate(long moves, int base) {
+        int count = 0;
+
+        while(moves != 0) {
+            moveStack[base + count] = Long.numberOfTrailingZeros(moves);
+            count++;
+            moves &= moves - 1;
+        }
+
+        return count;
+    }
+
+    /**
+     * Scores the current position at a leaf of the search
+     * @return Score from the side to move's perspective
+     */
+    private int evaluateLeaf() {
+        leafEvals++;
+        if(!usePatterns)
+            return evaluate(player, opponent);
+
+        int discs = BitBoard.count(player | opponent);
+        if(discs == 64)
+            return finalScore(player, opponent);
+        int score = patterns.score(discs);
+        return ((ply & 1) == 0) ? score : -score;
+    }
+
+    /**
+     * Evaluates a position on disc count, mobility and corners, scored as the
+     * difference between the two sides. Board.evaluate also counts stable discs;
+     * that term is left out here, where it would be paid for at every leaf
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return Score from the side to move's perspective
+     */
+    public static int evaluate(long player, long opponent) {
+        int myMoves = BitBoard.count(BitBoard.legalMoves(player, opponent));
+        int oppMoves = BitBoard.count(BitBoard.legalMoves(opponent, player));
+
+        if(myMoves == 0 && oppMoves == 0)
+            return finalScore(player, opponent);
+
+        int discCount = BitBoard.count(player) - BitBoard.count(opponent);
+        int totalLegal = (myMoves - oppMoves) * 100;
+        int totalCorner = (BitBoard.count(player & CORNERS) - BitBoard.count(opponent & CORNERS)) * 1000;
+
+        return discCount + totalLegal + totalCorner;
+    }
+
+    /**
+     * Scores a finished game
+     * @param player Bitboard of the side to move
+     * @param opponent Bitboard of the other side
+     * @return WIN plus the disc margin for a win, the negative for a loss, 0 for a draw
+     */
+    public static int finalScore(long player, long opponent) {
+        int margin = BitBoard.count(player) - BitBoard.count(opponent);
+
+        if(margin > 0)
+            return WIN + margin;
+        else if(margin < 0)
+            return -WIN + margin;
+        return 0;
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * @author Kenny Tram
+ * Counters from one search, summed over every search thread: each thread
+ * counts into its own Search and the totals are gathered here afterwards,
+ * so collecting them costs nothing while the search runs
+ */
+package KKT_Othello;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+public class SearchStats {
+    private static PrintWriter log; //JSON-lines log of every search; null when logging is off
+
+    public long nodes; //positions visited
+    public long leafEvals; //leaves scored by the evaluation
+    public long expanded; //nodes whose moves were searched
+    public long cutoffs; //expanded nodes that failed high
+    public long firstMoveCutoffs; //fail highs caused by the first move searched
+    public long probCuts; //nodes cut by a ProbCut probe
+    public long tableProbes; //transposition table lookups
+    public long tableHits; //lookups that found an entry
+    public long tableStores; //entries written
+    public int threads; //searches whose counters were added
+    public int depth; //depth completed by the main thread
+    public int score; //score of the main thread's move, side to move's perspective
+    public long elapsed; //nanoseconds the search took
+    public long budget; //nanoseconds the search was given
+    public long[] depthNodes = new long[65]; //main thread nodes when each iteration completed
+    public long[] depthTimes = new long[65]; //main thread nanoseconds when each iteration completed
+
+    /**
+     * Starts a JSON-lines log; every logged search is appended as one line
+     * @param fileName Log file, appended to if it exists
+     * @throws IOException If the file cannot be opened
+     */
+    public static void openLog(String fileName) throws IOException {
+        log = new PrintWriter(new FileWriter(fileName, true), true);
+    }
+
+    /**
+     * Calculates the effective branching factor of the last completed iteration
+     * @return Nodes of the last iteration over nodes of the one before; 0 if unknown
+     */
+    public double branchingFactor() {
+        if(depth < 2 || depthNodes[depth - 1] == 0)
+            return 0;
+        return (double)depthNodes[depth] / depthNodes[depth - 1];
+    }
+
+    /**
+     * Calculates the search speed
+     * @return Nodes per second over all threads
+     */
+    public long nodesPerSecond() {
+        return (long)(nodes / Math.max(elapsed / 1e9, 1e-9));
+    }
+
+    /**
+     * Prints the statistics as comment lines
+     */
+    public void print() {
+        System.out.printf(Locale.ROOT, "C Search: depth %d  score %d  %.3f s  %d threads%n",
+                          depth, score, elapsed / 1e9, threads);
+        System.out.printf(Locale.ROOT, "C Nodes: %d (%d nodes/sec)  leaf evals %d  EBF %.2f%n",
+                          nodes, nodesPerSecond(), leafEvals, branchingFactor());
+        System.out.printf(Locale.ROOT, "C Cutoffs: %.1f%% of expanded nodes, %.1f%% on the first move, %d by ProbCut%n",
+                          percent(cutoffs, expanded), percent(firstMoveCutoffs, cutoffs), probCuts);
+        System.out.printf(Locale.ROOT, "C Table: %d probes  %.1f%% hits  %d stores%n",
+                          tableProbes, percent(tableHits, tableProbes), tableStores);
+
+        StringBuilder iterations = new StringBuilder("C Iterations (ms):");
+        long previous = 0;
+        for(int d = 1; d <= depth; d++) {
+            if(depthTimes[d] == 0)
+                continue;
+            iterations.append(' ').append(d).append(':').append((depthTimes[d] - previous) / 1000000);
+            previous = depthTimes[d];
+        }
+        System.out.println(iterations);
+    }
+
+    /**
+     * Appends the statistics to the log, if one is open
+     * @param discs Discs on the board when the search started
+     */
+    public void log(int discs) {
+        if(log != null)
+            log.println(toJson(discs));
+    }
+
+    /**
+     * Makes a single-line JSON object of the statistics
+     * @param discs Discs on the board when the search started
+     * @return JSON text
+     */
+    public String toJson(int discs) {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"discs\":").append(discs)
+            .append(",\"depth\":").append(depth)
+            .append(",\"score\":").append(score)
+            .append(",\"budgetMs\":").append(budget / 1000000)
+            .append(",\"timeMs\":").append(elapsed / 1000000)
+            .append(",\"threads\":").append(threads)
+            .append(",\"nodes\":").append(nodes)
+            .append(",\"nps\":").append(nodesPerSecond())
+            .append(",\"leafEvals\":").append(leafEvals)
+            .append(",\"cutoffRate\":").append(String.format(Locale.ROOT, "%.4f", fraction(cutoffs, expanded)))
+            .append(",\"firstMoveCutoffRate\":").append(String.format(Locale.ROOT, "%.4f", fraction(firstMoveCutoffs, cutoffs)))
+            .append(",\"probCuts\":").append(probCuts)
+            .append(",\"ttProbes\":").append(tableProbes)
+            .append(",\"ttHits\":").append(tableHits)
+            .append(",\"ttStores\":").append(tableStores)
+            .append(",\"ebf\":").append(String.format(Locale.ROOT, "%.3f", branchingFactor()))
+            .append(",\"iterationMs\":[");
+        long previous = 0;
+        boolean first = true;
+        for(int d = 1; d <= depth; d++) {
+            if(depthTimes[d] == 0)
+                continue;
+            if(!first)
+                json.append(',');
+            json.append(String.format(Locale.ROOT, "%.3f", (depthTimes[d] - previous) / 1e6));
+            previous = depthTimes[d];
+            first = false;
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /**
+     * Divides two counters
+     * @param part Numerator
+     * @param whole Denominator
+     * @return part / whole, or 0 if whole is 0
+     */
+    private static double fraction(long part, long whole) {
+        return (whole == 0) ? 0 : (double)part / whole;
+    }
+
+    /**
+     * Divides two counters as a percentage
+     * @param part Numerator
+     * @param whole Denominator
+     * @return 100 * part / whole, or 0 if whole is 0
+     */
+    private static double percent(long part, long whole) {
+        return 100 * fraction(part, whole);
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * @author Kenny Tram
+ * Stable discs: discs that can never be flipped for the rest of the game. Edge
+ * discs come from a table over every configuration of an edge; stability then
+ * spreads inward, since a disc is stable once, along each of the four lines
+ * through it, the line is full or a neighbour on it is a stable disc of its colour.
+ */
+package KKT_Othello;
+
+public class Stability {
+    private static final long FILE_A = 0x0101010101010101L;
+    private static final long RANK_1 = 0x00000000000000ffL;
+    private static final long RANK_8 = 0xff00000000000000L;
+    private static final long EDGES = 0xff818181818181ffL;
+    private static final long GATHER = 0x0102040810204080L; //multiplier that moves column a's bits into the top byte
+
+    private static final int TERNARY[] = new int[256]; //edge bits in base 3, so player + 2 * opponent indexes EDGE_STABLE
+    private static final byte EDGE_STABLE[] = new byte[6561]; //stable player discs of each edge configuration
+    private static final long FILE_A_SQUARES[] = new long[256]; //edge bits spread back over column a
+    private static final long DIAGONALS[] = new long[30]; //the 15 diagonals and 15 anti-diagonals
+
+    static {
+        for(int bits = 0; bits < 256; bits++) {
+            for(int i = 0; i < 8; i++) {
+                if((bits & (1 << i)) != 0) {
+                    TERNARY[bits] += power3(i);
+                    FILE_A_SQUARES[bits] |= 1L << (8 * i);
+                }
+            }
+        }
+
+        boolean[] done = new boolean[6561];
+        for(int player = 0; player < 256; player++) {
+            for(int opponent = 0; opponent < 256; opponent++) {
+                if((player & opponent) == 0)
+                    edgeStable(player, opponent, done);
+            }
+        }
+
+        for(int bit = 0; bit < 64; bit++) {
+            int row = bit / 8;
+            int col = bit % 8;
+            DIAGONALS[row - col + 7] |= 1L << bit;
+            DIAGONALS[15 + row + col] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Finds the stable discs of one side
+     * @param player Bitboard of the side whose stable discs are wanted
+     * @param opponent Bitboard of the other side
+     * @return Bitboard of player's stable discs
+     */
+    public static long stableDiscs(long player, long opponent) {
+        long occupied = player | opponent;
+        long stable = edgeDiscs(player, opponent);
+
+        long fullRows = 0;
+        long fullColumns = 0;
+        long fullDiagonals = 0;
+        long fullAntiDiagonals = 0;
+        for(int i = 0; i < 8; i++) {
+            long row = RANK_1 << (8 * i);
+            long column = FILE_A << i;
+            if((occupied & row) == row)
+                fullRows |= row;
+            if((occupied & column) == column)
+                fullColumns |= column;
+        }
+        for(int i = 0; i < 15; i++) {
+            if((occupied & DIAGONALS[i]) == DIAGONALS[i])
+                fullDiagonals |= DIAGONALS[i];
+            if((occupied & DIAGONALS[15 + i]) == DIAGONALS[15 + i])
+                fullAntiDiagonals |= DIAGONALS[15 + i];
+        }
+
+        //squares off the board count as stable neighbours, so each line is safe at the edge it ends on
+        long rows = fullRows | FILE_A | (FILE_A << 7);
+        long columns = fullColumns | RANK_1 | RANK_8;
+        long diagonals = fullDiagonals | EDGES;
+        long antiDiagonals = fullAntiDiagonals | EDGES;
+        stable |= player & rows & columns & diagonals & antiDiagonals;
+
+        long previous;
+        do {
+            previous = stable;
+            long horizontal = rows | ((stable << 1) & BitBoard.NOT_A_FILE) | ((stable >>> 1) & BitBoard.NOT_H_FILE);
+            long vertical = columns | (stable << 8) | (stable >>> 8);
+            long diagonal = diagonals | ((stable << 9) & BitBoard.NOT_A_FILE) | ((stable >>> 9) & BitBoard.NOT_H_FILE);
+            long antiDiagonal = antiDiagonals | ((stable << 7) & BitBoard.NOT_H_FILE) | ((stable >>> 7) & BitBoard.NOT_A_FILE);
+            stable |= player & horizontal & vertical & diagonal & antiDiagonal;
+        } while(stable != previous);
+
+        return stable;
+    }
+
+    /**
+     * Counts the stable discs of one side
+     * @param player Bitboard of the side whose stable discs are counted
+     * @param opponent Bitboard of the other side
+     * @return Number of player's stable discs
+     */
+    public static int count(long player, long opponent) {
+        return BitBoard.count(stableDiscs(player, opponent));
+    }
+
+    /**
+     * Looks up the stable discs on the four edges
+     * @param player Bitboard of the side whose stable discs are wanted
+     * @param opponent Bitboard of the other side
+     * @return Bitboard of player's stable edge discs
+     */
+    private static long edgeDiscs(long player, long opponent) {
+        long stable = edge((int)player & 0xff, (int)opponent & 0xff);
+        stable |= (long)edge((int)(player >>> 56), (int)(opponent >>> 56)) << 56;
+        stable |= FILE_A_SQUARES[edge(column(player), column(opponent))];
+        stable |= FILE_A_SQUARES[edge(column(player >>> 7), column(opponent >>> 7))] << 7;
+        return stable;
+    }
+
+    /**
+     * Looks up one edge
+     * @param player Player's discs on the edge
+     * @param opponent Opponent's discs on the edge
+     * @return Player's stable discs on the edge
+     */
+    private static int edge(int player, int opponent) {
+        return EDGE_STABLE[TERNARY[player] + 2 * TERNARY[opponent]] & 0xff;
+    }
+
+    /**
+     * Gathers column a into one byte
+     * @param discs Bitboard
+     * @return Bit i set if row i + 1 of column a is set
+     */
+    private static int column(long discs) {
+        return (int)(((discs & FILE_A) * GATHER) >>> 56);
+    }
+
+    /**
+     * Works out the stable discs of an edge configuration: the player's discs
+     * that stay the player's whatever is played on the empty squares of the edge,
+     * by either side and in any order (edge discs can only be flipped along the edge)
+     * @param player Player's discs on the edge
+     * @param opponent Opponent's discs on the edge
+     * @param done Configurations already worked out
+     * @return Player's stable discs on the edge
+     */
+    private static int edgeStable(int player, int opponent, boolean[] done) {
+        int index = TERNARY[player] + 2 * TERNARY[opponent];
+        if(done[index])
+            return EDGE_STABLE[index] & 0xff;
+
+        int stable = player;
+        int empty = ~(player | opponent) & 0xff;
+        for(int square = 0; square < 8 && stable != 0; square++) {
+            if((empty & (1 << square)) == 0)
+                continue;
+            int placed = 1 << square;
+
+            int flipped = edgeFlips(player, opponent, square);
+            stable &= edgeStable(player | placed | flipped, opponent & ~flipped, done);
+
+            flipped = edgeFlips(opponent, player, square);
+            stable &= edgeStable(player & ~flipped, opponent | placed | flipped, done);
+        }
+
+        EDGE_STABLE[index] = (byte)stable;
+        done[index] = true;
+        return stable;
+    }
+
+    /**
+     * Finds the discs flipped along an edge by a disc placed on it
+     * @param mover Discs of the side placing the disc
+     * @param other Discs of the other side
+     * @param square Square on the edge, 0 - 7
+     * @return Discs of the other side that are flipped
+     */
+    private static int edgeFlips(int mover, int other, int square) {
+        int flipped = 0;
+        for(int step = -1; step <= 1; step += 2) {
+            int run = 0;
+            int i = square + step;
+            while(i >= 0 && i < 8 && (other & (1 << i)) != 0) {
+                run |= 1 << i;
+                i += step;
+            }
+            if(run != 0 && i >= 0 && i < 8 && (mover & (1 << i)) != 0)
+                flipped |= run;
+        }
+        return flipped;
+    }
+
+    /**
+     * Calculates a power of three
+     * @param exponent Exponent, 0 - 7
+     * @return 3 to the exponent
+     */
+    private static int power3(int exponent) {
+        int result = 1;
+        for(int i = 0; i < exponent; i++)
+            result *= 3;
+        return result;
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * @author Kenny Tram
+ * Searches every position of a suite to a fixed depth and reports nodes-to-depth
+ * and effective branching factor, to measure changes to move ordering
+ */
+package KKT_Othello;
+import java.io.IOException;
+import java.util.ArrayList;
+
+public class SuiteRunner {
+    public static final int REUSE_MOVES = 10; //moves the engine plays from each position when comparing tree reuse
+    public static final long REUSE_MOVE_TIME = 200000000L; //nanoseconds per move when comparing tree reuse
+    public static final int REPLY_DEPTH = 4; //depth of the fixed opponent that answers the engine's moves
+
+    /**
+     * Runs the suite
+     * @param args [depth] [suite file] [-noorder] [-verify] [-symmetry] [-reuse] [-probcut]
+     * @throws IOException If the suite file cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        int depth = 8;
+        String fileName = "positions.txt";
+        boolean verify = false;
+        boolean symmetry = false;
+        boolean reuse = false;
+
+        for(String arg : args) {
+            if(arg.equals("-noorder"))
+                Search.useOrdering = false;
+            else if(arg.equals("-verify"))
+                verify = true;
+            else if(arg.equals("-symmetry"))
+                symmetry = true;
+            else if(arg.equals("-reuse"))
+                reuse = true;
+            else if(arg.equals("-probcut"))
+                System.out.println("Loaded ProbCut parameters for " + ProbCut.load(ProbCut.PARAMETERS_FILE) + " depths");
+            else if(Character.isDigit(arg.charAt(0)))
+                depth = Integer.parseInt(arg);
+            else
+                fileName = arg;
+        }
+
+        ArrayList<Position> suite = Position.load(fileName);
+        if(verify) {
+            verify(suite, depth);
+            return;
+        }
+        if(symmetry) {
+            compareSymmetry(suite, depth);
+            return;
+        }
+        if(reuse) {
+            compareReuse(suite);
+            return;
+        }
+
+        long totalNodes = 0;
+        double logBranching = 0;
+        int measured = 0;
+
+        System.out.println("position  depth  nodes  EBF  seconds");
+        for(int i = 0; i < suite.size(); i++) {
+            Position position = suite.get(i);
+            Search search = new Search(new TranspositionTable(16));
+            search.setPosition(position.player(), position.opponent());
+
+            long start = System.nanoTime();
+            search.iterativeDeepening(Long.MAX_VALUE / 4, 1, depth);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            int reached = search.getDepth();
+            long nodes = search.getNodesToDepth(reached);
+            double branching = 0;
+            if(reached > 1 && search.getNodesToDepth(reached - 1) > 0) {
+                branching = (double)nodes / search.getNodesToDepth(reached - 1);
+                logBranching += Math.log(branching);
+                measured++;
+            }
+            totalNodes += nodes;
+
+            System.out.printf("%8d  %5d  %d  %.2f  %.3f%n", i + 1, reached, nodes, branching, seconds);
+        }
+
+        System.out.println("Total nodes: " + totalNodes);
+        if(measured > 0)
+            System.out.printf("Mean EBF: %.2f%n", Math.exp(logBranching / measured));
+    }
+
+    /**
+     * Searches the suite with and without symmetry sharing (canonical table keys
+     * and symmetric root move pruning) and reports the table hit rate and nodes of each
+     * @param suite Positions to search
+     * @param depth Search depth
+     */
+    private static void compareSymmetry(ArrayList<Position> suite, int depth) {
+        long[] totalNodes = new long[2];
+        long[] totalProbes = new long[2];
+        long[] totalHits = new long[2];
+
+        System.out.println("position  nodes (plain)  hit rate  nodes (symmetry)  hit rate  reduction");
+        for(int i = 0; i < suite.size(); i++) {
+            Position position = suite.get(i);
+            long[] nodes = new long[2];
+            double[] hitRate = new double[2];
+
+            for(int run = 0; run < 2; run++) {
+                Search.useSymmetry = (run == 1);
+                Search search = new Search(new TranspositionTable(16));
+                search.setPosition(position.player(), position.opponent());
+                search.iterativeDeepening(Long.MAX_VALUE / 4, 1, depth);
+
+                nodes[run] = search.getNodes();
+                hitRate[run] = 100.0 * search.getTableHits() / Math.max(1, search.getTableProbes());
+                totalNodes[run] += nodes[run];
+                totalProbes[run] += search.getTableProbes();
+                totalHits[run] += search.getTableHits();
+            }
+
+            System.out.printf("%8d  %13d  %7.1f%%  %16d  %7.1f%%  %8.1f%%%n", i + 1, nodes[0], hitRate[0],
+                              nodes[1], hitRate[1], 100.0 * (nodes[0] - nodes[1]) / Math.max(1, nodes[0]));
+        }
+
+        Search.useSymmetry = true;
+        System.out.printf("Total nodes: %d plain, %d with symmetry (%.1f%% fewer)%n", totalNodes[0], totalNodes[1],
+                          100.0 * (totalNodes[0] - totalNodes[1]) / Math.max(1, totalNodes[0]));
+        System.out.printf("Table hit rate: %.1f%% plain, %.1f%% with symmetry%n",
+                          100.0 * totalHits[0] / Math.max(1, totalProbes[0]),
+                          100.0 * totalHits[1] / Math.max(1, totalProbes[1]));
+    }
+
+    /**
+     * Plays REUSE_MOVES timed moves from every position against a fixed-depth
+     * opponent, once starting each search cold (empty table, killers and history)
+     * and once keeping them between moves as a game does, and reports the mean
+     * depth reached at each move
+     * @param suite Starting positions
+     */
+    private static void compareReuse(ArrayList<Position> suite) {
+        long[][] depths = new long[2][REUSE_MOVES];
+        int[][] counts = new int[2][REUSE_MOVES];
+        Search opponentSearch = new Search(new TranspositionTable(4));
+
+        for(int run = 0; run < 2; run++) {
+            Search.reuseTree = (run == 1);
+            for(Position position : suite) {
+                ParallelSearch search = new ParallelSearch(1, new TranspositionTable(16));
+                long player = position.player();
+                long opponent = position.opponent();
+
+                for(int move = 0; move < REUSE_MOVES; move++) {
+                    if(BitBoard.legalMoves(player, opponent) == 0)
+                        break;
+                    if(!Search.reuseTree)
+                        search.getTable().clear();
+                    int bit = search.iterativeDeepening(player, opponent, Zobrist.hash(player, opponent), REUSE_MOVE_TIME);
+                    depths[run][move] += search.getDepth();
+                    counts[run][move]++;
+                    long flipped = BitBoard.flips(player, opponent, bit);
+                    player |= flipped | (1L << bit);
+                    opponent &= ~flipped;
+
+                    opponentSearch.setPosition(opponent, player);
+                    int reply = opponentSearch.bestMove(REPLY_DEPTH);
+                    if(reply != Search.PASS) {
+                        flipped = BitBoard.flips(opponent, player, reply);
+                        opponent |= flipped | (1L << reply);
+                        player &= ~flipped;
+                    }
+                }
+                search.shutdown();
+            }
+        }
+        Search.reuseTree = true;
+
+        System.out.println("move  depth (cold)  depth (reuse)");
+        double[] totals = new double[2];
+        for(int move = 0; move < REUSE_MOVES; move++) {
+            double cold = (double)depths[0][move] / Math.max(1, counts[0][move]);
+            double warm = (double)depths[1][move] / Math.max(1, counts[1][move]);
+            totals[0] += cold;
+            totals[1] += warm;
+            System.out.printf("%4d  %12.2f  %13.2f%n", move + 1, cold, warm);
+        }
+        System.out.printf("Mean depth: %.2f cold, %.2f with reuse%n", totals[0] / REUSE_MOVES, totals[1] / REUSE_MOVES);
+    }
+
+    /**
+     * Checks that the search finds the same root score as plain minimax at equal depth
+     * @param suite Positions to check
+     * @param depth Search depth
+     */
+    private static void verify(ArrayList<Position> suite, int depth) {
+        int mismatches = 0;
+
+        System.out.println("position  minimax  search  minimax nodes  search nodes");
+        for(int i = 0; i < suite.size(); i++) {
+            Position position = suite.get(i);
+            Search search = new Search(new TranspositionTable(16));
+
+            search.setPosition(position.player(), position.opponent());
+            search.resetNodes();
+            int expected = search.minimax(depth);
+            long minimaxNodes = search.getNodes();
+
+            search.setPosition(position.player(), position.opponent());
+            search.bestMove(depth);
+            int found = search.getScore();
+
+            if(found != expected)
+                mismatches++;
+            System.out.printf("%8d  %7d  %6d  %13d  %12d%s%n", i + 1, expected, found, minimaxNodes,
+                              search.getNodes(), (found != expected) ? "  MISMATCH" : "");
+        }
+
+        System.out.println(mismatches == 0 ? "All scores match" : mismatches + " mismatches");
+    }
+}
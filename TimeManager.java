@@ -0,0 +1,164 @@
+/**
+ * @author Kenny Tram
+ * Game clock and time allocation. Time is charged as it is really used (in
+ * nanoseconds), so whatever a move does not use stays on the clock and is
+ * spread over the moves still to come; part of the clock is held back for the
+ * endgame solve and a safety margin is never spent.
+ */
+package KKT_Othello;
+
+public class TimeManager {
+    public static final double SAFETY_FRACTION = 0.02; //share of the remaining time never spent, for I/O lag
+    public static final long MIN_SAFETY = 1000000000L; //the safety margin is at least a second
+    public static final double ENDGAME_RESERVE = 0.15; //share of the game's time held back for the endgame (at most half of what is left)
+    public static final double ENDGAME_SHARE = 0.5; //share of the remaining time the first endgame solve may use
+    public static final double HARD_FACTOR = 3; //the hard limit is this many target move times
+    public static final double MAX_MOVE_FRACTION = 0.25; //no single move may use more of the available time
+    public static final double MOVE_CHANGE_EXTENSION = 1.5; //soft limit stretch when the best move changes
+    public static final double SCORE_DROP_EXTENSION = 1.5; //soft limit stretch when the score falls
+    public static final double MAX_EXTENSION = 3; //the soft limit is never stretched further than this
+    public static final int SCORE_DROP = 150; //score fall (hundredths of a disc) that counts as a drop
+
+    private final long total; //nanoseconds on the clock at the start of the game
+    private long remaining; //nanoseconds left on the clock
+    private long moveStart; //System.nanoTime() when the current move started
+    private long banked; //time saved so far by searched moves: their targets minus the time used
+    private long target; //intended length of the current move
+    private boolean reserveGiven; //true once a solve has been given the large endgame share
+
+    /**
+     * Creates a clock for a whole game
+     * @param nanos Time for all of the program's moves
+     */
+    public TimeManager(long nanos) {
+        total = nanos;
+        remaining = nanos;
+    }
+
+    /**
+     * Starts timing a move
+     */
+    public void startMove() {
+        moveStart = System.nanoTime();
+        target = 0;
+    }
+
+    /**
+     * Stops timing the current move and charges the time used to the clock
+     * @return Nanoseconds the move took
+     */
+    public long endMove() {
+        long used = elapsed();
+        remaining -= used;
+        banked += target - used;
+        return used;
+    }
+
+    /**
+     * Returns the time since startMove
+     * @return Nanoseconds
+     */
+    public long elapsed() {
+        return System.nanoTime() - moveStart;
+    }
+
+    /**
+     * Returns the time left on the clock, not counting the move in progress
+     * @return Nanoseconds
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * Returns the time saved by moves that finished under their target
+     * @return Nanoseconds; negative if moves have run over
+     */
+    public long getBanked() {
+        return banked;
+    }
+
+    /**
+     * Calculates the time the current move may spend without touching the safety margin
+     * @return Nanoseconds still available, less what the move has used already
+     */
+    public long available() {
+        long left = remaining - elapsed();
+        return Math.max(0, left - Math.max(MIN_SAFETY, (long)(left * SAFETY_FRACTION)));
+    }
+
+    /**
+     * Calculates when the search should stop starting iterations: the time left
+     * after the endgame reserve, shared over the moves before the endgame. An
+     * iteration started just before this point ends well after it, and the search
+     * may stretch the limit, so it is a third of the move's target.
+     * @param empties Empty squares on the board
+     * @return Nanoseconds from now
+     */
+    public long softLimit(int empties) {
+        target = moveTime(empties);
+        return target / 3;
+    }
+
+    /**
+     * Calculates how long a search that can stop at any moment, such as the
+     * Monte Carlo search, should run: the whole target move time
+     * @param empties Empty squares on the board
+     * @return Nanoseconds from now
+     */
+    public long moveTarget(int empties) {
+        target = moveTime(empties);
+        return target;
+    }
+
+    /**
+     * Calculates when the search must stop, even in the middle of an iteration
+     * @param empties Empty squares on the board
+     * @return Nanoseconds from now
+     */
+    public long hardLimit(int empties) {
+        return Math.min((long)(moveTime(empties) * HARD_FACTOR), (long)(spendable(empties) * MAX_MOVE_FRACTION));
+    }
+
+    /**
+     * Calculates how long the endgame solver may run; the first solve gets a large
+     * share of the clock, since once it succeeds the remaining moves are cheap.
+     * Later solves get an ordinary move's time, so solves that keep failing
+     * cannot each spend half of what is left.
+     * @param empties Empty squares on the board
+     * @return Nanoseconds from now
+     */
+    public long endgameLimit(int empties) {
+        if(reserveGiven) {
+            target = moveTime(empties);
+            return target;
+        }
+        reserveGiven = true;
+        target = (long)(available() * ENDGAME_SHARE);
+        return target;
+    }
+
+    /**
+     * Calculates the time the moves up to the endgame may share
+     * @param empties Empty squares on the board
+     * @return Available nanoseconds, less the endgame reserve before the endgame
+     */
+    private long spendable(int empties) {
+        long available = available();
+        if(empties > Board.endgameEmpties)
+            available -= Math.min((long)(total * ENDGAME_RESERVE), remaining / 2);
+        return Math.max(0, available);
+    }
+
+    /**
+     * Calculates the target length of a move
+     * @param empties Empty squares on the board
+     * @return Nanoseconds
+     */
+    private long moveTime(int empties) {
+        int movesLeft = Math.max(1, empties / 2); //the program plays about every other remaining square
+        if(empties > Board.endgameEmpties)
+            movesLeft = Math.max(1, (empties - Board.endgameEmpties) / 2);
+        return spendable(empties) / movesLeft;
+    }
+}
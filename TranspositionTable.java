@@ -0,0 +1,159 @@
+/**
+ * @author Kenny Tram
+ * Fixed-size transposition table stored in parallel primitive arrays; safe to
+ * share between search threads without locks
+ */
+package KKT_Othello;
+import java.util.Arrays;
+
+public class TranspositionTable {
+    public static final int DEFAULT_SIZE_MB = 64;
+    public static final int ENTRY_BYTES = 16; //one long key, one long of packed data
+
+    public static final int EXACT = 1; //score is the true value of the position
+    public static final int LOWER = 2; //score failed high; the true value is at least this
+    public static final int UPPER = 3; //score failed low; the true value is at most this
+
+    public static final int NO_MOVE = 127;
+    public static final long MISS = 0; //returned by probe when the position is not stored
+    public static final int AGE_PENALTY = 2; //plies of depth a deep entry is worth less for each search since it was stored
+
+    /**
+     * Each slot stores key ^ data next to data, so an entry torn by two threads
+     * writing the same slot at once fails the key check instead of returning garbage
+     */
+    private long[] keys;
+    private long[] data; //score in the high 32 bits; depth in bits 0-7, bound in 8-9, move in 10-16, generation in 17-23
+    private int bucketMask;
+    private volatile int generation; //counts searches, so entries from earlier moves can be told apart
+
+    /**
+     * Creates an empty table
+     * @param sizeMB Memory to use, in megabytes
+     */
+    public TranspositionTable(int sizeMB) {
+        long entries = Math.max(2, (long)sizeMB * 1024 * 1024 / ENTRY_BYTES);
+        int buckets = Integer.highestOneBit((int)Math.min(entries / 2, 1 << 28));
+
+        keys = new long[buckets * 2];
+        data = new long[buckets * 2];
+        bucketMask = buckets - 1;
+    }
+
+    /**
+     * Looks up a position
+     * @param key Zobrist hash of the position
+     * @return Packed entry (read with depthOf, boundOf, moveOf, scoreOf), or MISS
+     */
+    public long probe(long key) {
+        int slot = ((int)key & bucketMask) * 2;
+
+        long entry = data[slot];
+        if((keys[slot] ^ entry) == key && entry != MISS)
+            return entry;
+        entry = data[slot + 1];
+        if((keys[slot + 1] ^ entry) == key && entry != MISS)
+            return entry;
+        return MISS;
+    }
+
+    /**
+     * Starts a new search: entries stored from now on are newer than every entry
+     * already in the table, which stays usable but is replaced more readily
+     */
+    public void newSearch() {
+        generation = (generation + 1) & 0x7f;
+    }
+
+    /**
+     * Stores a search result; each bucket keeps the deepest result seen in its
+     * first slot, counting an older search's result AGE_PENALTY plies shallower
+     * per search since, and always replaces its second slot
+     * @param key Zobrist hash of the position
+     * @param depth Depth the position was searched to
+     * @param bound EXACT, LOWER or UPPER
+     * @param score Score of the position
+     * @param move Best move found, or NO_MOVE
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        int slot = ((int)key & bucketMask) * 2;
+        int current = generation;
+        long entry = ((long)score << 32) | (depth & 0xff) | (bound << 8) | ((move & 0x7f) << 10) | (current << 17);
+        long oldEntry = data[slot];
+        long oldKey = keys[slot] ^ oldEntry;
+        int age = (current - generationOf(oldEntry)) & 0x7f;
+
+        if(oldKey != key && depth < depthOf(oldEntry) - age * AGE_PENALTY) {
+            slot++; //shallower results go to the always-replace slot
+        }
+        else if(oldKey != key && oldEntry != MISS) { //demote the old deep entry instead of losing it
+            keys[slot + 1] = oldKey ^ oldEntry;
+            data[slot + 1] = oldEntry;
+        }
+
+        keys[slot] = key ^ entry;
+        data[slot] = entry;
+    }
+
+    /**
+     * Empties the table
+     */
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        generation = 0;
+    }
+
+    /**
+     * Returns the depth stored in an entry
+     * @param entry Entry returned by probe
+     * @return Depth in plies
+     */
+    public static int depthOf(long entry) {
+        return (int)entry & 0xff;
+    }
+
+    /**
+     * Returns the bound type stored in an entry
+     * @param entry Entry returned by probe
+     * @return EXACT, LOWER or UPPER
+     */
+    public static int boundOf(long entry) {
+        return ((int)entry >>> 8) & 3;
+    }
+
+    /**
+     * Returns the best move stored in an entry
+     * @param entry Entry returned by probe
+     * @return Square of the best move, or NO_MOVE
+     */
+    public static int moveOf(long entry) {
+        return ((int)entry >>> 10) & 0x7f;
+    }
+
+    /**
+     * Returns the generation (see newSearch) of the search that stored an entry
+     * @param entry Entry returned by probe
+     * @return Generation, 0 - 127
+     */
+    public static int generationOf(long entry) {
+        return ((int)entry >>> 17) & 0x7f;
+    }
+
+    /**
+     * Returns the score stored in an entry
+     * @param entry Entry returned by probe
+     * @return Score from the side to move's perspective
+     */
+    public static int scoreOf(long entry) {
+        return (int)(entry >> 32);
+    }
+
+    /**
+     * Returns the number of entries the table can hold
+     * @return Capacity in entries
+     */
+    public int capacity() {
+        return keys.length;
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * @author Kenny Tram
+ * Offline tuning of the pattern weights: plays fast self-play games on every
+ * core, records each position with the game's final margin, and fits the
+ * PatternEval tables to those outcomes by least squares
+ */
+package KKT_Othello;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Tuner {
+    public static final int RECORD_BYTES = 18; //black, white, side to move, final margin for black
+
+    private static DataOutputStream output;
+    private static long positionsWritten;
+
+    /**
+     * Runs one stage of the pipeline
+     * @param args generate games file [-threads N] [-depth D] [-random K] [-seed S]
+     *             or fit file weights [-epochs N] [-rate R]
+     * @throws Exception If a file cannot be read or written
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length >= 3 && args[0].equals("generate"))
+            generate(Integer.parseInt(args[1]), args[2], args);
+        else if(args.length >= 3 && args[0].equals("fit"))
+            fit(args[1], args[2], args);
+        else
+            System.out.println("Usage: Tuner generate <games> <file> [-threads N] [-depth D] [-random K] [-seed S]\n"
+                               + "       Tuner fit <file> <weights> [-epochs N] [-rate R]");
+    }
+
+    /**
+     * Plays self-play games in parallel and appends their positions to a file
+     * @param games Number of games to play
+     * @param fileName Output file; records are RECORD_BYTES each
+     * @param args Options
+     * @throws Exception If the file cannot be written
+     */
+    public static void generate(int games, String fileName, String[] args) throws Exception {
+        int threads = Integer.parseInt(option(args, "-threads", "" + Runtime.getRuntime().availableProcessors()));
+        int depth = Integer.parseInt(option(args, "-depth", "4"));
+        int randomMoves = Integer.parseInt(option(args, "-random", "8"));
+        long seed = Long.parseLong(option(args, "-seed", "" + System.nanoTime()));
+        AtomicInteger nextGame = new AtomicInteger();
+
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName, true)));
+        long start = System.nanoTime();
+
+        Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                Search search = new Search(new TranspositionTable(8));
+                long[] record = new long[3 * 64];
+                int game;
+                while((game = nextGame.getAndIncrement()) < games)
+                    playGame(search, new Random(seed + game), depth, randomMoves, record);
+            });
+            workers[t].start();
+        }
+        for(Thread worker : workers)
+            worker.join();
+        output.close();
+
+        double hours = (System.nanoTime() - start) / 3.6e12;
+        System.out.printf("%d games, %d positions, %.0f games/hour on %d threads%n",
+                          games, positionsWritten, games / hours, threads);
+    }
+
+    /**
+     * Plays one game, random for the first moves and then by a fixed-depth search
+     * @param search Search owned by the calling thread
+     * @param random Source of the opening moves
+     * @param depth Search depth
+     * @param randomMoves Number of random moves at the start of the game
+     * @param record Buffer for the game's positions (black, white, side to move)
+     */
+    private static void playGame(Search search, Random random, int depth, int randomMoves, long[] record) {
+        Position position = Position.initial();
+        int plies = 0;
+        int recorded = 0;
+        boolean passed = false;
+
+        while(true) {
+            long player = position.player();
+            long opponent = position.opponent();
+            long moves = BitBoard.legalMoves(player, opponent);
+
+            if(moves == 0) {
+                if(passed)
+                    break;
+                passed = true;
+                position.blackToMove = !position.blackToMove;
+                continue;
+            }
+            passed = false;
+
+            record[recorded * 3] = position.black;
+            record[recorded * 3 + 1] = position.white;
+            record[recorded * 3 + 2] = position.blackToMove ? 1 : 0;
+            recorded++;
+
+            int move;
+            if(plies < randomMoves) {
+                int pick = random.nextInt(BitBoard.count(moves));
+                for(int i = 0; i < pick; i++)
+                    moves &= moves - 1;
+                move = Long.numberOfTrailingZeros(moves);
+            }
+            else {
+                search.setPosition(player, opponent);
+                move = search.bestMove(depth);
+            }
+
+            long flipped = BitBoard.flips(player, opponent, move);
+            player |= flipped | (1L << move);
+            opponent &= ~flipped;
+            if(position.blackToMove) {
+                position.black = player;
+                position.white = opponent;
+            }
+            else {
+                position.white = player;
+                position.black = opponent;
+            }
+            position.blackToMove = !position.blackToMove;
+            plies++;
+        }
+
+        int margin = BitBoard.count(position.black) - BitBoard.count(position.white);
+        writeGame(record, recorded, margin);
+    }
+
+    /**
+     * Appends a finished game's positions to the output file
+     * @param record Positions (black, white, side to move)
+     * @param count Number of positions
+     * @param margin Final disc margin for black
+     */
+    private static synchronized void writeGame(long[] record, int count, int margin) {
+        try {
+            for(int i = 0; i < count; i++) {
+                output.writeLong(record[i * 3]);
+                output.writeLong(record[i * 3 + 1]);
+                output.writeByte((int)record[i * 3 + 2]);
+                output.writeByte(margin);
+            }
+            positionsWritten += count;
+        }
+        catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Fits the pattern tables to the recorded outcomes by stochastic gradient descent
+     * on the squared error, keeping every table antisymmetric (swapping the colors
+     * negates the weight), then writes the weights file
+     * @param fileName Recorded positions
+     * @param weightsFile Output weights file
+     * @param args Options
+     * @throws IOException If a file cannot be read or written
+     */
+    public static void fit(String fileName, String weightsFile, String[] args) throws IOException {
+        int epochs = Integer.parseInt(option(args, "-epochs", "20"));
+        double rate = Double.parseDouble(option(args, "-rate", "0.002"));
+
+        long bytes = new File(fileName).length();
+        if(bytes == 0)
+            throw new IOException("No records to fit in " + fileName);
+        if(bytes % RECORD_BYTES != 0)
+            throw new IOException("Not a record file of " + RECORD_BYTES + "-byte records (" + bytes + " bytes): " + fileName);
+        long size = bytes / RECORD_BYTES;
+        long[] players = new long[(int)size];
+        long[] opponents = new long[(int)size];
+        int[] targets = new int[(int)size];
+        try(DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            for(int i = 0; i < size; i++) {
+                long black = input.readLong();
+                long white = input.readLong();
+                boolean blackToMove = input.readByte() != 0;
+                int margin = input.readByte();
+                players[i] = blackToMove ? black : white;
+                opponents[i] = blackToMove ? white : black;
+                targets[i] = (blackToMove ? margin : -margin) * 100; //hundredths of a disc, side to move
+            }
+        }
+
+        int[][] swapped = new int[PatternEval.TYPES][];
+        float[][][] weights = new float[PatternEval.STAGES][PatternEval.TYPES][];
+        for(int type = 0; type < PatternEval.TYPES; type++) {
+            swapped[type] = swapTable(PatternEval.weights[0][type].length);
+            for(int stage = 0; stage < PatternEval.STAGES; stage++) {
+                short[] current = PatternEval.weights[stage][type];
+                weights[stage][type] = new float[current.length];
+                for(int i = 0; i < current.length; i++)
+                    weights[stage][type][i] = current[i];
+            }
+        }
+
+        int[] order = new int[(int)size];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        int[] indices = new int[PatternEval.instances];
+        Random random = new Random(1);
+
+        for(int epoch = 1; epoch <= epochs; epoch++) {
+            for(int i = order.length - 1; i > 0; i--) { //shuffle
+                int j = random.nextInt(i + 1);
+                int temp = order[i];
+                order[i] = order[j];
+                order[j] = temp;
+            }
+
+            double squaredError = 0;
+            for(int n : order) {
+                float[][] table = weights[PatternEval.stage(BitBoard.count(players[n] | opponents[n]))];
+                double predicted = 0;
+                for(int i = 0; i < indices.length; i++) {
+                    indices[i] = PatternEval.index(i, players[n], opponents[n]);
+                    predicted += table[PatternEval.instanceType[i]][indices[i]];
+                }
+
+                double error = targets[n] - predicted;
+                squaredError += error * error;
+                float step = (float)(rate * error);
+                for(int i = 0; i < indices.length; i++) {
+                    int type = PatternEval.instanceType[i];
+                    int mirror = swapped[type][indices[i]];
+                    if(mirror == indices[i])
+                        continue; //color-symmetric configurations stay at 0
+                    table[type][indices[i]] += step;
+                    table[type][mirror] -= step;
+                }
+            }
+            System.out.printf("epoch %d  RMS error %.1f discs%n", epoch, Math.sqrt(squaredError / size) / 100);
+        }
+
+        for(int stage = 0; stage < PatternEval.STAGES; stage++) {
+            for(int type = 0; type < PatternEval.TYPES; type++) {
+                float[] table = weights[stage][type];
+                for(int i = 0; i < table.length; i++)
+                    PatternEval.weights[stage][type][i] = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(table[i])));
+            }
+        }
+        PatternEval.saveWeights(weightsFile);
+        System.out.println("Wrote " + weightsFile);
+    }
+
+    /**
+     * Builds the table mapping each base-3 index to the index with the colors swapped
+     * @param length Number of indices (a power of 3)
+     * @return Swapped index for each index
+     */
+    private static int[] swapTable(int length) {
+        int[] table = new int[length];
+
+        for(int index = 0; index < length; index++) {
+            int rest = index;
+            int result = 0;
+            int power = 1;
+            while(power < length) {
+                int digit = rest % 3;
+                rest /= 3;
+                result += ((digit == 0) ? 0 : 3 - digit) * power;
+                power *= 3;
+            }
+            table[index] = result;
+        }
+
+        return table;
+    }
+
+    /**
+     * Reads a command line option
+     * @param args Command line
+     * @param name Option name
+     * @param fallback Value if the option is absent
+     * @return Option value
+     */
+    private static String option(String[] args, String name, String fallback) {
+        for(int i = 0; i + 1 < args.length; i++) {
+            if(args[i].equals(name))
+                return args[i + 1];
+        }
+        return fallback;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * @author Kenny Tram
+ * Zobrist hash keys for Othello positions
+ */
+package KKT_Othello;
+import java.util.Random;
+
+public class Zobrist {
+    /**
+     * Random keys per owner and square; owner 0 is the engine (ME), owner 1 the opponent
+     */
+    public static final long KEYS[][] = new long[2][64];
+    public static final long SIDE; //toggled whenever the opponent is the side to move
+
+    static {
+        Random random = new Random(0x4f7468656c6c6fL); //fixed seed so hashes are reproducible between runs
+        for(int owner = 0; owner < 2; owner++) {
+            for(int bit = 0; bit < 64; bit++)
+                KEYS[owner][bit] = random.nextLong();
+        }
+        SIDE = random.nextLong();
+    }
+
+    /**
+     * Computes the hash of a set of discs from scratch
+     * @param mine Bitboard of the engine's discs
+     * @param theirs Bitboard of the opponent's discs
+     * @return Zobrist hash of the discs (without the side to move)
+     */
+    public static long hash(long mine, long theirs) {
+        long hash = 0;
+
+        while(mine != 0) {
+            hash ^= KEYS[0][Long.numberOfTrailingZeros(mine)];
+            mine &= mine - 1;
+        }
+        while(theirs != 0) {
+            hash ^= KEYS[1][Long.numberOfTrailingZeros(theirs)];
+            theirs &= theirs - 1;
+        }
+
+        return hash;
+    }
+}